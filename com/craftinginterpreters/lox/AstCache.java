@@ -0,0 +1,649 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+// Stores resolved ASTs on disk so unchanged scripts can skip scanning, parsing and resolving.
+class AstCache {
+    // Bump this whenever the AST classes or the binary format change.
+    static final int VERSION = 6;
+
+    private final Path directory;
+
+    AstCache() {
+        this(Paths.get(System.getProperty("jlox.cache",
+                System.getProperty("user.home") + "/.jlox/cache")));
+    }
+
+    AstCache(Path directory) {
+        this.directory = directory;
+    }
+
+    List<Stmt> load(String source, Program program) {
+        Path path = pathFor(source);
+        if (!Files.isRegularFile(path)) return null;
+
+        List<Stmt> statements;
+        try (InputStream in = Files.newInputStream(path)) {
+            statements = read(in, program);
+        } catch (IOException | RuntimeException e) {
+            statements = null;
+        }
+        // A corrupt entry, or one from another version, is a cache miss. It is deleted, so
+        // entries don't pile up as the version changes.
+        if (statements == null) delete(path);
+        return statements;
+    }
+
+    void store(String source, List<Stmt> statements) {
+        Path path = pathFor(source);
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, "ast", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                write(out, statements);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ignored) {
+            // Failing to cache shouldn't stop the script from running.
+        } finally {
+            // Only still there if the write or the move failed.
+            if (temp != null) delete(temp);
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // Nothing more to do; the next store will try again.
+        }
+    }
+
+    // Reads an image written by write(), including resolved depths and captures, numbering
+    // the nodes in program. Returns null if the image was written by a different version.
+    static List<Stmt> read(InputStream stream, Program program) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != VERSION) return null;
+        return new Reader(in, program).readStatements();
+    }
+
+    static void write(OutputStream stream, List<Stmt> statements) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        try {
+            out.writeInt(VERSION);
+            new Writer(out).writeStatements(statements);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+    }
+
+    // The version is left out of the name, so a newer jlox finds an old entry, rejects it
+    // and replaces it instead of leaving it behind.
+    private Path pathFor(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(HexFormat.of().formatHex(hash) + ".ast");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Tags for literal values.
+    private static final byte NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3, STRING = 4;
+
+    // Also used by Snapshot, which writes function bodies into the same stream.
+    static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void writeStatements(List<Stmt> statements) {
+            writeStatements(statements.toArray(new Stmt[0]));
+        }
+
+        private void writeStatements(Stmt[] statements) {
+            writeInt(statements.length);
+            for (Stmt statement : statements) {
+                writeStmt(statement);
+            }
+        }
+
+        void writeStmt(Stmt stmt) {
+            if (stmt == null) {
+                writeByte(0);
+                return;
+            }
+            stmt.accept(this);
+        }
+
+        void writeExpr(Expr expr) {
+            if (expr == null) {
+                writeByte(0);
+                return;
+            }
+            expr.accept(this);
+        }
+
+        private void writeExprs(Expr[] exprs) {
+            writeInt(exprs.length);
+            for (Expr expr : exprs) {
+                writeExpr(expr);
+            }
+        }
+
+        private void writeTokens(Token[] tokens) {
+            writeInt(tokens.length);
+            for (Token token : tokens) {
+                writeToken(token);
+            }
+        }
+
+        // Token literals are only needed by the parser, so they aren't stored.
+        private void writeToken(Token token) {
+            if (token == null) {
+                writeByte(-1);
+                return;
+            }
+            writeByte(token.type.ordinal());
+            writeString(token.lexeme);
+            writeInt(token.line);
+        }
+
+        // Stored off by one so that 0 means unresolved (a global).
+        private void writeDepth(Expr expr) {
+            writeInt(expr.depth + 1);
+        }
+
+        void writeString(String string) {
+            Integer index = strings.get(string);
+            if (index != null) {
+                writeInt(index);
+                return;
+            }
+            writeInt(strings.size());
+            strings.put(string, strings.size());
+            // Length-prefixed rather than writeUTF, which can't hold more than 64K bytes.
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            try {
+                out.write(bytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Counts, lines and indices are small, so use a variable-length encoding.
+        void writeInt(int value) {
+            try {
+                while ((value & ~0x7f) != 0) {
+                    out.writeByte((value & 0x7f) | 0x80);
+                    value >>>= 7;
+                }
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeByte(int value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeDouble(double value) {
+            try {
+                out.writeDouble(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            writeByte(1);
+            writeStatements(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Stmt.Break stmt) {
+            writeByte(2);
+            writeToken(stmt.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            writeByte(3);
+            writeToken(stmt.name);
+            writeExpr(stmt.superclass);
+            writeStatements(stmt.instanceMethods);
+            writeStatements(stmt.classMethods);
+            writeStatements(stmt.getters);
+            writeStatements(stmt.setters);
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(Stmt.Continue stmt) {
+            writeByte(4);
+            writeToken(stmt.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitEmptyStmt(Stmt.Empty stmt) {
+            writeByte(5);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            writeByte(6);
+            writeExpr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            writeByte(7);
+            writeToken(stmt.name);
+            writeTokens(stmt.params);
+            writeStatements(stmt.body);
+            writeByte(stmt.isAsync ? 1 : 0);
+            writeTokens(stmt.captures);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            writeByte(8);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.thenBranch);
+            writeStmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitInputStmt(Stmt.Input stmt) {
+            writeByte(9);
+            writeToken(stmt.keyword);
+            writeExpr(stmt.variable);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            writeByte(10);
+            writeExpr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            writeByte(11);
+            writeToken(stmt.keyword);
+            writeExpr(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitValStmt(Stmt.Val stmt) {
+            writeByte(12);
+            writeToken(stmt.name);
+            writeExpr(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            writeByte(13);
+            writeToken(stmt.name);
+            writeExpr(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            writeByte(14);
+            writeToken(stmt.keyword);
+            writeExpr(stmt.condition);
+            writeStmt(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            writeByte(1);
+            writeToken(expr.name);
+            writeExpr(expr.value);
+            writeDepth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitAwaitExpr(Expr.Await expr) {
+            writeByte(15);
+            writeToken(expr.keyword);
+            writeExpr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            writeByte(2);
+            writeExpr(expr.left);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            writeByte(3);
+            writeExpr(expr.callee);
+            writeToken(expr.paren);
+            writeExprs(expr.arguments);
+            return null;
+        }
+
+        @Override
+        public Void visitConditionalExpr(Expr.Conditional expr) {
+            writeByte(4);
+            writeExpr(expr.condition);
+            writeExpr(expr.left);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionExpr(Expr.Function expr) {
+            writeByte(5);
+            writeToken(expr.keyword);
+            writeTokens(expr.params);
+            writeStatements(expr.body);
+            writeByte(expr.isAsync ? 1 : 0);
+            writeTokens(expr.captures);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            writeByte(6);
+            writeExpr(expr.object);
+            writeToken(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            writeByte(7);
+            writeExpr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            writeByte(8);
+            Object value = expr.value;
+            if (value == null) {
+                writeByte(NIL);
+            } else if (value instanceof Boolean) {
+                writeByte((boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                writeByte(NUMBER);
+                writeDouble((double) value);
+            } else {
+                writeByte(STRING);
+                writeString((String) value);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            writeByte(9);
+            writeExpr(expr.left);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            writeByte(10);
+            writeExpr(expr.object);
+            writeToken(expr.name);
+            writeExpr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            writeByte(11);
+            writeToken(expr.keyword);
+            writeToken(expr.method);
+            writeDepth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            writeByte(12);
+            writeToken(expr.keyword);
+            writeDepth(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            writeByte(13);
+            writeToken(expr.operator);
+            writeExpr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            writeByte(14);
+            writeToken(expr.name);
+            writeDepth(expr);
+            return null;
+        }
+    }
+
+    static class Reader {
+        private static final TokenType[] tokenTypes = TokenType.values();
+
+        private final DataInputStream in;
+        private final Program program;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(DataInputStream in, Program program) {
+            this.in = in;
+            this.program = program;
+        }
+
+        List<Stmt> readStatements() throws IOException {
+            return Arrays.asList(readStatementArray());
+        }
+
+        private Stmt[] readStatementArray() throws IOException {
+            Stmt[] statements = new Stmt[readInt()];
+            for (int i = 0; i < statements.length; i++) {
+                statements[i] = readStmt();
+            }
+            return statements;
+        }
+
+        private Stmt.Function[] readFunctions() throws IOException {
+            Stmt.Function[] functions = new Stmt.Function[readInt()];
+            for (int i = 0; i < functions.length; i++) {
+                functions[i] = (Stmt.Function) readStmt();
+            }
+            return functions;
+        }
+
+        private Expr[] readExprs() throws IOException {
+            Expr[] exprs = new Expr[readInt()];
+            for (int i = 0; i < exprs.length; i++) {
+                exprs[i] = readExpr();
+            }
+            return exprs;
+        }
+
+        private Token[] readTokens() throws IOException {
+            Token[] tokens = new Token[readInt()];
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = readToken();
+            }
+            return tokens;
+        }
+
+        private Token readToken() throws IOException {
+            byte type = in.readByte();
+            if (type == -1) return null;
+            String lexeme = readString();
+            int line = readInt();
+            return new Token(tokenTypes[type], lexeme, null, line);
+        }
+
+        String readString() throws IOException {
+            int index = readInt();
+            if (index == strings.size()) {
+                byte[] bytes = new byte[readInt()];
+                in.readFully(bytes);
+                strings.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return strings.get(index);
+        }
+
+        int readInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.readByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+        }
+
+        private <T extends Expr> T readDepth(T expr) throws IOException {
+            int depth = readInt();
+            expr.depth = depth - 1;
+            return expr;
+        }
+
+        // Nodes are numbered as they are read, as the resolver numbers them.
+        Stmt readStmt() throws IOException {
+            Stmt stmt = readStmtNode();
+            if (stmt != null) stmt.id = program.nextNodeId();
+            return stmt;
+        }
+
+        private Stmt readStmtNode() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case 0: return null;
+                case 1: return new Stmt.Block(readStatementArray());
+                case 2: return new Stmt.Break(readToken());
+                case 3: return new Stmt.Class(readToken(), (Expr.Variable) readExpr(),
+                        readFunctions(), readFunctions(), readFunctions(), readFunctions());
+                case 4: return new Stmt.Continue(readToken());
+                case 5: return new Stmt.Empty();
+                case 6: return new Stmt.Expression(readExpr());
+                case 7: {
+                    Stmt.Function function = new Stmt.Function(readToken(), readTokens(),
+                            readStatementArray(), in.readBoolean());
+                    function.captures = readTokens();
+                    return function;
+                }
+                case 8: return new Stmt.If(readExpr(), readStmt(), readStmt());
+                case 9: return new Stmt.Input(readToken(), (Expr.Variable) readExpr());
+                case 10: return new Stmt.Print(readExpr());
+                case 11: return new Stmt.Return(readToken(), readExpr());
+                case 12: return new Stmt.Val(readToken(), readExpr());
+                case 13: return new Stmt.Var(readToken(), readExpr());
+                case 14: return new Stmt.While(readToken(), readExpr(), readStmt());
+            }
+
+            throw new IOException("Unknown statement tag " + tag + ".");
+        }
+
+        Expr readExpr() throws IOException {
+            Expr expr = readExprNode();
+            if (expr != null) expr.id = program.nextNodeId();
+            return expr;
+        }
+
+        private Expr readExprNode() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case 0: return null;
+                case 1: return readDepth(new Expr.Assign(readToken(), readExpr()));
+                case 2: return new Expr.Binary(readExpr(), readToken(), readExpr());
+                case 3: return new Expr.Call(readExpr(), readToken(), readExprs());
+                case 4: return new Expr.Conditional(readExpr(), readExpr(), readExpr());
+                case 5: {
+                    Expr.Function function = new Expr.Function(readToken(), readTokens(),
+                            readStatementArray(), in.readBoolean());
+                    function.captures = readTokens();
+                    return function;
+                }
+                case 6: return new Expr.Get(readExpr(), readToken());
+                case 7: return new Expr.Grouping(readExpr());
+                case 8: return new Expr.Literal(readLiteral());
+                case 9: return new Expr.Logical(readExpr(), readToken(), readExpr());
+                case 10: return new Expr.Set(readExpr(), readToken(), readExpr());
+                case 11: return readDepth(new Expr.Super(readToken(), readToken()));
+                case 12: return readDepth(new Expr.This(readToken()));
+                case 13: return new Expr.Unary(readToken(), readExpr());
+                case 14: return readDepth(new Expr.Variable(readToken()));
+                case 15: return new Expr.Await(readToken(), readExpr());
+            }
+
+            throw new IOException("Unknown expression tag " + tag + ".");
+        }
+
+        private Object readLiteral() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case NUMBER: return in.readDouble();
+                case STRING: return readString();
+            }
+
+            throw new IOException("Unknown literal tag " + tag + ".");
+        }
+    }
+}
@@ -10,6 +10,11 @@ class AstPrinter implements Expr.Visitor<String>{
         return "(= " + expr.name.lexeme + " " + expr.value + ")";
     }
 
+    @Override
+    public String visitAwaitExpr(Expr.Await expr) {
+        return parenthesize("await", expr.value);
+    }
+
     @Override
     public String visitBinaryExpr(Expr.Binary expr) {
         return parenthesize(expr.operator.lexeme, expr.left, expr.right);
@@ -17,8 +22,7 @@ class AstPrinter implements Expr.Visitor<String>{
 
     @Override
     public String visitCallExpr(Expr.Call expr) {
-        Expr[] arguments = expr.arguments.toArray(new Expr[0]);
-        return parenthesize(expr.callee.toString(), arguments);
+        return parenthesize(expr.callee.toString(), expr.arguments);
     }
 
     @Override
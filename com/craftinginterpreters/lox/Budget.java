@@ -0,0 +1,85 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// The limits on one execution of a script, so an untrusted script can't hold a worker
+// forever. Steps are loop iterations and calls. An interpreter counts its steps down locally
+// and only reports them here every interval steps, which is also the only time the clock is
+// read; tasks the script spawns report to the same budget.
+class Budget {
+    // What an embedder asks for. Zero means no limit.
+    record Limits(long steps, long millis, long depth, long instances) {
+        static final Limits NONE = new Limits(0, 0, 0, 0);
+
+        Limits withSteps(long steps) {
+            return new Limits(positive(steps), millis, depth, instances);
+        }
+
+        Limits withMillis(long millis) {
+            return new Limits(steps, positive(millis), depth, instances);
+        }
+
+        Limits withDepth(long depth) {
+            return new Limits(steps, millis, positive(depth), instances);
+        }
+
+        Limits withInstances(long instances) {
+            return new Limits(steps, millis, depth, positive(instances));
+        }
+
+        private static long positive(long value) {
+            if (value < 1) throw new IllegalArgumentException("A limit must be at least 1.");
+            return value;
+        }
+    }
+
+    private static final int CHECK_INTERVAL = 1 << 12;
+
+    static final Budget UNLIMITED = new Budget(Limits.NONE);
+
+    // How many steps an interpreter takes between reports.
+    final int interval;
+    // Checked on every call, since it's per interpreter.
+    final long maxDepth;
+
+    private final Limits limits;
+    private final long start;
+    private final long timeout;
+    private final AtomicLong steps = new AtomicLong();
+    private final AtomicLong instances = new AtomicLong();
+
+    // The clock starts now.
+    Budget(Limits limits) {
+        this.limits = limits;
+        this.interval = limits.steps == 0 ? CHECK_INTERVAL : (int) Math.min(CHECK_INTERVAL, limits.steps);
+        this.maxDepth = limits.depth == 0 ? Long.MAX_VALUE : limits.depth;
+        this.start = System.nanoTime();
+        this.timeout = nanos(limits.millis);
+    }
+
+    // A time limit too long to count in nanoseconds is as good as none.
+    private static long nanos(long millis) {
+        try {
+            return Math.multiplyExact(millis, 1_000_000);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    // Called every interval steps.
+    void spend(Token where) {
+        if (limits.steps != 0 && steps.addAndGet(interval) > limits.steps) {
+            throw new RuntimeError(where, "Script ran for more than " + limits.steps + " steps.");
+        }
+        if (limits.millis != 0 && System.nanoTime() - start > timeout) {
+            throw new RuntimeError(where, "Script ran for more than " + limits.millis + "ms.");
+        }
+    }
+
+    // Called for each new instance.
+    void allocate() {
+        if (limits.instances != 0 && instances.incrementAndGet() > limits.instances) {
+            throw new Natives.NativeError("Script made more than " + limits.instances + " instances.");
+        }
+    }
+}
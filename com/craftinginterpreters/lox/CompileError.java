@@ -0,0 +1,18 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Thrown by LoxEngine.compile with every syntax and resolution error, in the format the
+// command line prints them.
+public class CompileError extends Exception {
+    private final List<String> errors;
+
+    CompileError(List<String> errors) {
+        super(String.join("\n", errors));
+        this.errors = List.copyOf(errors);
+    }
+
+    public List<String> errors() {
+        return errors;
+    }
+}
@@ -0,0 +1,56 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+// The base of the classes loxc generates for top-level functions, and the glue their code
+// calls into. A compiled function keeps its declaration, so it prints, shares and checks
+// its captures like an interpreted one; only its body runs as bytecode.
+abstract class CompiledFunction extends LoxFunction {
+    CompiledFunction(Stmt.Function declaration, Environment closure) {
+        super(declaration, closure);
+    }
+
+    // Calls from the interpreter, with the arity already checked.
+    @Override
+    public abstract Object call(Interpreter interpreter, List<Object> arguments);
+
+    // A call from compiled code to anything but a compiled function it knows about.
+    static Object call(Interpreter interpreter, Token paren, Object callee, Object[] arguments) {
+        return interpreter.call(callee, paren, Arrays.asList(arguments));
+    }
+
+    // Assigning a local val, which the interpreter also only rejects when it happens.
+    static Object reassignConstant(Token name, Object value) {
+        throw new RuntimeError(name, "Cannot reassign constant value.");
+    }
+
+    // The comma operator, whose left side is only evaluated for its effects.
+    static Object comma(Object left, Object right) {
+        return right;
+    }
+
+    // What a compiled function's declaration is replaced with in the tree: it defines the
+    // name as a constant, as visitFunctionStmt does.
+    static Stmt define(CompiledFunction function) {
+        return new Stmt.Val(function.declaration().name, new Expr.Literal(function));
+    }
+
+    // What a compiled top-level statement is replaced with: a call to its code, which the
+    // budget counts like any other call.
+    static Stmt statement(Token where, Function<Interpreter, Object> code) {
+        LoxCallable callable = new LoxCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return code.apply(interpreter);
+            }
+        };
+        return new Stmt.Expression(new Expr.Call(new Expr.Literal(callable), where, new Expr[0]));
+    }
+}
@@ -0,0 +1,61 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// A parsed and resolved script. Nothing an execution changes lives in the tree itself, so
+// one script can be executed on many threads at once.
+public final class CompiledScript {
+    private final List<Stmt> statements;
+    // Numbers the nodes and globals, for every execution to share.
+    private final Program program;
+
+    CompiledScript(List<Stmt> statements, Program program) {
+        this.statements = List.copyOf(statements);
+        this.program = program;
+    }
+
+    public ExecutionResult execute() {
+        return execute(new ExecutionContext());
+    }
+
+    public ExecutionResult execute(ExecutionContext context) {
+        List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        ErrorReporter errors = new ErrorReporter(messages::add);
+        Interpreter interpreter = new Interpreter(errors, context.input(), context.output());
+        return run(interpreter, context, errors, messages);
+    }
+
+    // Runs on an interpreter taken from the pool, and gives it back afterwards.
+    ExecutionResult execute(ExecutionContext context, InterpreterPool pool) throws InterruptedException {
+        List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        ErrorReporter errors = new ErrorReporter(messages::add);
+        Interpreter interpreter = pool.take(errors, context.input(), context.output());
+        try {
+            return run(interpreter, context, errors, messages);
+        } finally {
+            pool.release(interpreter);
+        }
+    }
+
+    private ExecutionResult run(Interpreter interpreter, ExecutionContext context,
+                                ErrorReporter errors, List<String> messages) {
+        interpreter.enter(program);
+        context.defineGlobals(interpreter.globals);
+        interpreter.limit(context.budget());
+
+        try {
+            interpreter.interpret(statements);
+        } finally {
+            // Also when an error other than a RuntimeError escapes, so the output isn't lost.
+            try {
+                context.flush();
+            } catch (IOException e) {
+                // The same as a write that fails during the run: the output is lost.
+            }
+        }
+        return new ExecutionResult(errors.hadRuntimeError ? 70 : 0, messages);
+    }
+}
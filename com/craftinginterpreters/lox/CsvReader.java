@@ -0,0 +1,102 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+// Pulls CSV rows from a source one at a time. Quoted fields may hold commas, doubled quotes and
+// line breaks. A row only records where its fields are; a field becomes a Lox value when it's
+// read: a number if an unquoted field looks like one, otherwise a string.
+class CsvReader {
+    static final class Row {
+        private final String line;
+        private final int[] starts;
+        private final int[] ends;
+        private final int count;
+
+        private Row(String line, int[] starts, int[] ends, int count) {
+            this.line = line;
+            this.starts = starts;
+            this.ends = ends;
+            this.count = count;
+        }
+
+        int size() {
+            return count;
+        }
+
+        Object get(int index) {
+            int start = starts[index];
+            int end = ends[index];
+            if (start < end && line.charAt(start) == '"') {
+                int close = line.lastIndexOf('"', end - 1);
+                if (close == start) close = end;
+                return line.substring(start + 1, close).replace("\"\"", "\"");
+            }
+
+            String field = line.substring(start, end);
+            Double number = Interpreter.parseNumber(field);
+            return number != null ? number : field;
+        }
+
+        @Override
+        public String toString() {
+            return line;
+        }
+    }
+
+    private final TextSource source;
+
+    CsvReader(TextSource source) {
+        this.source = source;
+    }
+
+    // Returns the next row, or null at the end.
+    Row next() throws IOException {
+        String line = source.readLine();
+        if (line == null) return null;
+
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        int count = 0;
+        int i = 0;
+        while (true) {
+            int start = i;
+            if (i < line.length() && line.charAt(i) == '"') {
+                i++;
+                while (true) {
+                    int quote = line.indexOf('"', i);
+                    if (quote < 0) {
+                        // The field goes on to the next line.
+                        String more = source.readLine();
+                        if (more == null) {
+                            i = line.length();
+                            break;
+                        }
+                        line = line + "\n" + more;
+                        continue;
+                    }
+                    if (quote + 1 < line.length() && line.charAt(quote + 1) == '"') {
+                        i = quote + 2;
+                        continue;
+                    }
+                    i = quote + 1;
+                    break;
+                }
+            }
+
+            int comma = line.indexOf(',', i);
+            int end = comma < 0 ? line.length() : comma;
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+
+            if (comma < 0) break;
+            i = comma + 1;
+        }
+        return new Row(line, starts, ends, count);
+    }
+}
@@ -2,53 +2,113 @@ package com.craftinginterpreters.lox;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class Environment {
-    private record ValueInfo(Object value, boolean isMutable) {}
+    // Storage for one variable. Redefining a name updates its existing cell rather than
+    // replacing it, so the interpreter can cache the cells of globals in the AST.
+    static final class Cell {
+        Object value;
+        boolean isMutable;
+
+        Cell(Object value, boolean isMutable) {
+            this.value = value;
+            this.isMutable = isMutable;
+        }
+    }
+
     final Environment enclosing;
-    private final Map<String, ValueInfo> values = new HashMap<>();
+    private Map<String, Cell> values;
+    // Whether other threads can see this environment, in which case values is concurrent.
+    private boolean isShared;
 
+    // The globals, which every thread of a script can see.
     Environment() {
         enclosing = null;
+        values = new ConcurrentHashMap<>();
+        isShared = true;
     }
 
     Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        values = new HashMap<>();
+        isShared = false;
     }
 
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme).value;
+    // Called by the thread that owns this chain before another thread may use it. Cells are
+    // not synchronized: as with plain Java fields, spawning, waiting for tasks and channels
+    // are what make one thread's writes visible to another.
+    void share() {
+        for (Environment environment = this;
+             environment != null && !environment.isShared;
+             environment = environment.enclosing) {
+            environment.values = new ConcurrentHashMap<>(environment.values);
+            environment.isShared = true;
         }
+    }
 
-        if (enclosing != null) return enclosing.get(name);
+    // Puts the globals back to just the given constants, as a new interpreter has them. Cells
+    // that are kept stay the same objects, so anything caching them stays valid.
+    void reset(Map<String, ?> constants) {
+        values.keySet().retainAll(constants.keySet());
+        for (Map.Entry<String, ?> constant : constants.entrySet()) {
+            Cell cell = values.get(constant.getKey());
+            if (cell == null || cell.value != constant.getValue() || cell.isMutable) {
+                define(constant.getKey(), constant.getValue(), false);
+            }
+        }
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    // The variables defined directly in this environment, not its enclosing ones.
+    Map<String, Cell> cells() {
+        return values;
+    }
+
+    Object get(Token name) {
+        return lookUp(name).value;
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            if (!values.get(name.lexeme).isMutable) {
-                throw new RuntimeError(name, "Cannot reassign constant.");
-            }
-            values.put(name.lexeme, new ValueInfo(value, true));
-            return;
+        Cell cell = lookUp(name);
+        if (!cell.isMutable) {
+            throw new RuntimeError(name, "Cannot reassign constant.");
         }
+        cell.value = value;
+    }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
+    // Finds the cell for a variable in this environment or an enclosing one.
+    Cell lookUp(Token name) {
+        Cell cell = values.get(name.lexeme);
+        if (cell != null) return cell;
+
+        if (enclosing != null) return enclosing.lookUp(name);
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
+    // Like lookUp, but returns null if the name isn't defined.
+    Cell find(String name) {
+        for (Environment environment = this;
+             environment != null;
+             environment = environment.enclosing) {
+            Cell cell = environment.values.get(name);
+            if (cell != null) return cell;
+        }
+        return null;
+    }
+
     void declare(String name, boolean isMutable) {
-        values.put(name, new ValueInfo(null, isMutable));
+        define(name, null, isMutable);
     }
 
     void define(String name, Object value, boolean isMutable) {
-        values.put(name, new ValueInfo(value, isMutable));
+        Cell cell = values.get(name);
+        if (cell == null) {
+            values.put(name, new Cell(value, isMutable));
+        } else {
+            cell.value = value;
+            cell.isMutable = isMutable;
+        }
     }
 
     Environment ancestor(int distance) {
@@ -66,10 +126,10 @@ class Environment {
     }
 
     void assignAt(int distance, Token name, Object value) {
-        Environment target = ancestor(distance);
-        if (!target.values.get(name.lexeme).isMutable) {
+        Cell cell = ancestor(distance).values.get(name.lexeme);
+        if (!cell.isMutable) {
             throw new RuntimeError(name, "Cannot reassign constant value.");
         }
-        target.values.put(name.lexeme, new ValueInfo(value, true));
+        cell.value = value;
     }
 }
@@ -0,0 +1,48 @@
+package com.craftinginterpreters.lox;
+
+import java.util.function.Consumer;
+
+// Collects the errors from compiling and running one script, and passes each message on to a
+// sink. Every run has its own, so scripts can run side by side. The tasks a script spawns
+// report to it as well.
+class ErrorReporter {
+    private final Consumer<String> sink;
+    volatile boolean hadError = false;
+    volatile boolean hadRuntimeError = false;
+
+    ErrorReporter(Consumer<String> sink) {
+        this.sink = sink;
+    }
+
+    static ErrorReporter stderr() {
+        return new ErrorReporter(System.err::println);
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    synchronized void runtimeError(RuntimeError error) {
+        sink.accept(error.getMessage() + "\n[line " + error.token.line + "]");
+        hadRuntimeError = true;
+    }
+
+    // A runtime error with no line to point at.
+    synchronized void runtimeError(String message) {
+        sink.accept(message);
+        hadRuntimeError = true;
+    }
+
+    private synchronized void report(int line, String where, String message) {
+        sink.accept("[line " + line + "] Error" + where + ": " + message);
+        hadError = true;
+    }
+}
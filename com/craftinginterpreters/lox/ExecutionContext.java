@@ -0,0 +1,101 @@
+package com.craftinginterpreters.lox;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// What an execution of a script reads, writes and starts with. Text is UTF-8. Each execution
+// buffers its own input, so two runs reading at once should not share an input stream.
+public final class ExecutionContext {
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    private final InputStream input;
+    private final OutputStream output;
+    private final Map<String, Object> globals = new LinkedHashMap<>();
+    private Budget.Limits limits = Budget.Limits.NONE;
+
+    // Standard input and output.
+    public ExecutionContext() {
+        this(new FileInputStream(FileDescriptor.in), new FileOutputStream(FileDescriptor.out));
+    }
+
+    public ExecutionContext(InputStream input, OutputStream output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    // Defines a global variable before the script runs. Values may be null, booleans, strings
+    // or any Number, which becomes a Lox number.
+    public ExecutionContext define(String name, Object value) {
+        if (value instanceof Number && !(value instanceof Double)) {
+            value = ((Number) value).doubleValue();
+        } else if (value != null && !(value instanceof Boolean)
+                && !(value instanceof Double) && !(value instanceof String)) {
+            throw new IllegalArgumentException("Can't pass a " + value.getClass().getName() + " to Lox.");
+        }
+        globals.put(name, value);
+        return this;
+    }
+
+    // Limits for running untrusted scripts. A script that goes over one stops with a runtime
+    // error. Steps are loop iterations and calls, and are counted to within a few thousand.
+    public ExecutionContext limitSteps(long steps) {
+        limits = limits.withSteps(steps);
+        return this;
+    }
+
+    public ExecutionContext limitTime(Duration time) {
+        long millis;
+        try {
+            millis = time.toMillis();
+        } catch (ArithmeticException e) {
+            millis = Long.MAX_VALUE;
+        }
+        limits = limits.withMillis(millis);
+        return this;
+    }
+
+    public ExecutionContext limitCallDepth(int depth) {
+        limits = limits.withDepth(depth);
+        return this;
+    }
+
+    public ExecutionContext limitInstances(long instances) {
+        limits = limits.withInstances(instances);
+        return this;
+    }
+
+    ExecutionContext limit(Budget.Limits limits) {
+        this.limits = limits;
+        return this;
+    }
+
+    // A new budget for each execution, so its clock starts when the script does.
+    Budget budget() {
+        return limits == Budget.Limits.NONE ? Budget.UNLIMITED : new Budget(limits);
+    }
+
+    Input input() {
+        return new Input(input, BUFFER_SIZE);
+    }
+
+    Output output() {
+        return new Output(Channels.newChannel(output), BUFFER_SIZE, StandardCharsets.UTF_8);
+    }
+
+    void defineGlobals(Environment environment) {
+        globals.forEach((name, value) -> environment.define(name, value, true));
+    }
+
+    void flush() throws IOException {
+        output.flush();
+    }
+}
@@ -0,0 +1,14 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Status is 0 for success and 70 after a runtime error, as for the command line.
+public record ExecutionResult(int status, List<String> errors) {
+    public ExecutionResult {
+        errors = List.copyOf(errors);
+    }
+
+    public boolean succeeded() {
+        return status == 0;
+    }
+}
@@ -1,10 +1,9 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
-
 abstract class Expr {
     interface Visitor<R> {
         R visitAssignExpr(Assign expr);
+        R visitAwaitExpr(Await expr);
         R visitBinaryExpr(Binary expr);
         R visitCallExpr(Call expr);
         R visitConditionalExpr(Conditional expr);
@@ -19,6 +18,9 @@ abstract class Expr {
         R visitUnaryExpr(Unary expr);
         R visitVariableExpr(Variable expr);
     }
+
+    int id = -1;
+    int depth = -1;
     static class Assign extends Expr {
         Assign(Token name, Expr value) {
             this.name = name;
@@ -32,6 +34,22 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+
+        int global = -1;
+    }
+    static class Await extends Expr {
+        Await(Token keyword, Expr value) {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitAwaitExpr(this);
+        }
+
+        final Token keyword;
+        final Expr value;
     }
     static class Binary extends Expr {
         Binary(Expr left, Token operator, Expr right) {
@@ -50,7 +68,7 @@ abstract class Expr {
         final Expr right;
     }
     static class Call extends Expr {
-        Call(Expr callee, Token paren, List<Expr> arguments) {
+        Call(Expr callee, Token paren, Expr[] arguments) {
             this.callee = callee;
             this.paren = paren;
             this.arguments = arguments;
@@ -63,7 +81,7 @@ abstract class Expr {
 
         final Expr callee;
         final Token paren;
-        final List<Expr> arguments;
+        final Expr[] arguments;
     }
     static class Conditional extends Expr {
         Conditional(Expr condition, Expr left, Expr right) {
@@ -82,10 +100,11 @@ abstract class Expr {
         final Expr right;
     }
     static class Function extends Expr {
-        Function(Token keyword, List<Token> params, List<Stmt> body) {
+        Function(Token keyword, Token[] params, Stmt[] body, boolean isAsync) {
             this.keyword = keyword;
             this.params = params;
             this.body = body;
+            this.isAsync = isAsync;
         }
 
         @Override
@@ -94,8 +113,11 @@ abstract class Expr {
         }
 
         final Token keyword;
-        final List<Token> params;
-        final List<Stmt> body;
+        final Token[] params;
+        final Stmt[] body;
+        final boolean isAsync;
+
+        Token[] captures = null;
     }
     static class Get extends Expr {
         Get(Expr object, Token name) {
@@ -218,6 +240,8 @@ abstract class Expr {
         }
 
         final Token name;
+
+        int global = -1;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,122 @@
+package com.craftinginterpreters.lox;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Reads UTF-8 text from a stream through one large byte buffer. Lines that are pure ASCII,
+// which is most of them, are turned into strings without going through a decoder. Reads are
+// synchronized, since spawned tasks share their parent's input.
+class Input implements TextSource {
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final InputStream stream;
+    private byte[] buffer;
+    private int start = 0;
+    private int end = 0;
+    private boolean atEof = false;
+    // Set after a line ended in '\r', so a '\n' right after it isn't taken as an empty line.
+    private boolean skipLineFeed = false;
+
+    static Input stdin() {
+        return new Input(new FileInputStream(FileDescriptor.in), DEFAULT_CAPACITY);
+    }
+
+    Input(InputStream stream, int capacity) {
+        this.stream = stream;
+        this.buffer = new byte[capacity];
+    }
+
+    // Returns the next line without its terminator, or null at the end of input. As with
+    // BufferedReader, a line ends at '\n', '\r' or "\r\n".
+    @Override
+    public synchronized String readLine() throws IOException {
+        skipLineFeed();
+        int scanned = start;
+        while (true) {
+            for (int i = scanned; i < end; i++) {
+                byte b = buffer[i];
+                if (b == '\n' || b == '\r') {
+                    String line = decode(start, i);
+                    start = i + 1;
+                    skipLineFeed = b == '\r';
+                    return line;
+                }
+            }
+            scanned = end - start;
+            if (!fill()) break;
+            scanned += start;
+        }
+
+        if (start == end) return null;
+        String line = decode(start, end);
+        start = end;
+        return line;
+    }
+
+    // Returns up to count bytes of input, cut back so no character is split, or null at the
+    // end of input.
+    @Override
+    public synchronized String read(int count) throws IOException {
+        skipLineFeed();
+        while (end - start < count && fill()) {}
+        if (start == end) return null;
+
+        int blockEnd = Math.min(start + count, end);
+        if (blockEnd < end) {
+            // Back up over continuation bytes to the start of the last character.
+            int lead = blockEnd;
+            while (lead > start && (buffer[lead] & 0xC0) == 0x80) lead--;
+            if (lead > start) blockEnd = lead;
+        }
+        String block = decode(start, blockEnd);
+        start = blockEnd;
+        return block;
+    }
+
+    private void skipLineFeed() throws IOException {
+        if (!skipLineFeed) return;
+        skipLineFeed = false;
+        if (start == end && !fill()) return;
+        if (buffer[start] == '\n') start++;
+    }
+
+    // Reads more bytes after the ones still unconsumed, compacting or growing the buffer.
+    // Returns false if the stream has ended.
+    private boolean fill() throws IOException {
+        if (atEof) return false;
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        if (end == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+        int read = stream.read(buffer, end, buffer.length - end);
+        if (read < 0) {
+            atEof = true;
+            return false;
+        }
+        end += read;
+        return true;
+    }
+
+    private String decode(int from, int to) {
+        return decode(buffer, from, to);
+    }
+
+    static String decode(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] < 0) return new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        }
+        return new String(bytes, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return "<stdin>";
+    }
+}
@@ -1,13 +1,14 @@
 package com.craftinginterpreters.lox;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.craftinginterpreters.lox.LoxFunction.MethodType;
 
@@ -15,37 +16,222 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     private static class BreakSignal extends RuntimeException {}
     private static class ContinueSignal extends RuntimeException {}
 
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    final Environment globals;
+    private Environment environment;
+    // The program being run, whose global indexes globalCells follows.
+    private Program program = new Program();
+    private Environment.Cell[] globalCells = new Environment.Cell[16];
 
-    private final InputStreamReader input = new InputStreamReader(System.in);
-    private final BufferedReader reader = new BufferedReader(input);
+    private ErrorReporter errors;
+    private Input input;
+    private Output output;
+    // Set once spawned tasks share the output, which is then locked around each use.
+    private boolean isShared = false;
+    // Files a script has opened and not yet closed.
+    final Set<LoxFile> openFiles;
 
+    // Frozen fields this interpreter has read, indexed by the id of the Get node that read
+    // them. It lives here rather than on the node, so nothing a run reads is kept in the
+    // tree or outlives the interpreter's next reset. Made on the first frozen read, with a
+    // slot for each node in the program.
+    private LoxInstance.FrozenField[] frozenReads = null;
+
+    private Budget budget = Budget.UNLIMITED;
+    // Steps left before reporting to the budget, and how deeply calls are nested.
+    private int ticks = budget.interval;
+    private long depth = 0;
+
+    Interpreter(ErrorReporter errors) {
+        this(errors, Input.stdin(), Output.stdout());
+    }
+
+    // An interpreter with no errors or I/O yet, for a pool to attach() them to.
     Interpreter() {
+        this(null, null, null);
+    }
+
+    Interpreter(ErrorReporter errors, Input input, Output output) {
+        this.errors = errors;
+        this.input = input;
+        this.output = output;
+        this.globals = new Environment();
+        this.environment = globals;
+        this.openFiles = ConcurrentHashMap.newKeySet();
         for (var function: Natives.all.entrySet()) {
             globals.define(function.getKey(), function.getValue(), false);
         }
     }
 
+    // An interpreter for a task spawned by this one, on another thread. It shares the globals,
+    // input, output and files, but has its own environment and call stack.
+    Interpreter spawn() {
+        isShared = true;
+        return new Interpreter(this);
+    }
+
+    private Interpreter(Interpreter parent) {
+        this.errors = parent.errors;
+        this.input = parent.input;
+        this.output = parent.output;
+        this.globals = parent.globals;
+        this.environment = globals;
+        this.program = parent.program;
+        this.globalCells = new Environment.Cell[parent.globalCells.length];
+        this.openFiles = parent.openFiles;
+        this.isShared = true;
+        limit(parent.budget);
+    }
+
+    void attach(ErrorReporter errors, Input input, Output output) {
+        this.errors = errors;
+        this.input = input;
+        this.output = output;
+    }
+
+    // Readies the interpreter to run the nodes of another program.
+    void enter(Program program) {
+        if (program == this.program) return;
+        this.program = program;
+        globalCells = new Environment.Cell[Math.max(program.globalCount(), 16)];
+        frozenReads = null;
+    }
+
+    Program program() {
+        return program;
+    }
+
+    void limit(Budget budget) {
+        this.budget = budget;
+        this.ticks = budget.interval;
+    }
+
+    // Counts a loop iteration or call. The budget only hears about every interval'th one.
+    void tick(Token where) {
+        if (--ticks == 0) {
+            ticks = budget.interval;
+            budget.spend(where);
+        }
+    }
+
+    void allocate() {
+        budget.allocate();
+    }
+
+    // Readies a finished interpreter to be attached to a new run, as if it were new. Files
+    // left open are closed. Returns false if it ever spawned a task, since the task may still
+    // be using the globals.
+    boolean reset() {
+        if (isShared) return false;
+        for (LoxFile file : openFiles) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+                // The run is over, so there's no one left to tell.
+            }
+        }
+        openFiles.clear();
+        globals.reset(Natives.all);
+        // An idle interpreter shouldn't keep the last run's program and cells alive.
+        enter(new Program());
+        environment = globals;
+        attach(null, null, null);
+        limit(Budget.UNLIMITED);
+        depth = 0;
+        return true;
+    }
+
+    // Output is flushed at the end of each call, and before reporting a runtime error.
+    // Open files are flushed at the end too, even if something other than a RuntimeError,
+    // such as a StackOverflowError, escapes.
     void interpret(List<Stmt> statements) {
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            flushOutput();
+            errors.runtimeError(error);
+        } finally {
+            flush();
         }
     }
 
-    void interpret(Expr expression) {
-        Object value = "";
+    void interpret(Stmt statement) {
         try {
-            value = evaluate(expression);
+            execute(statement);
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            flushOutput();
+            errors.runtimeError(error);
+        } finally {
+            flush();
         }
-        System.out.println(stringify(value));
+    }
+
+    void interpret(Expr expression) {
+        try {
+            Object value = "";
+            try {
+                value = evaluate(expression);
+            } catch (RuntimeError error) {
+                flushOutput();
+                errors.runtimeError(error);
+            }
+            print(stringify(value));
+        } finally {
+            flush();
+        }
+    }
+
+    void printValue(Object value) {
+        print(stringify(value));
+    }
+
+    private void print(String text) {
+        if (isShared) {
+            synchronized (output) {
+                output.println(text);
+            }
+        } else {
+            output.println(text);
+        }
+    }
+
+    private void flushOutput() {
+        if (isShared) {
+            synchronized (output) {
+                output.flush();
+            }
+        } else {
+            output.flush();
+        }
+    }
+
+    // For an error in a task that nothing has joined, after the output written before it.
+    void reportError(RuntimeError error) {
+        flushOutput();
+        errors.runtimeError(error);
+    }
+
+    void reportError(String message) {
+        flushOutput();
+        errors.runtimeError(message);
+    }
+
+    void flush() {
+        flushOutput();
+        for (LoxFile file : openFiles) {
+            try {
+                file.flush();
+            } catch (IOException ignored) {
+                // Reported by the file's next write or close.
+            }
+        }
+    }
+
+    // Natives that read stdin share the interpreter's buffer with the input statement.
+    Input stdin() {
+        flushOutput();
+        return input;
     }
 
     private Object evaluate(Expr expr) {
@@ -56,11 +242,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         stmt.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
-
-    void executeBlock(List<Stmt> statements, Environment environment) {
+    void executeBlock(Stmt[] statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
@@ -177,21 +359,26 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitInputStmt(Stmt.Input stmt) {
-        String input;
+        environment.assign(stmt.variable.name, readInput(stmt.keyword));
+        return null;
+    }
+
+    // The next line of input, as a value. nil once input has run out.
+    Object readInput(Token keyword) {
+        String line;
+        // Make sure any prompt has been shown before waiting.
+        flushOutput();
         try {
-            input = reader.readLine();
+            line = input.readLine();
         } catch (IOException e) {
-            throw new RuntimeError(stmt.keyword, "There was an error reading input.");
+            throw new RuntimeError(keyword, "There was an error reading input.");
         }
-        Object value = parseInput(input);
-        environment.assign(stmt.variable.name, value);
-        return null;
+        return line == null ? null : parseInput(line);
     }
 
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
-        Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        printValue(evaluate(stmt.expression));
         return null;
     }
 
@@ -230,8 +417,9 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 // If a break statement was reached, break
                 break;
             } catch (ContinueSignal signal) {
-                continue;
+                // Falls through to the back-edge.
             }
+            tick(stmt.keyword);
         }
         return null;
     }
@@ -240,13 +428,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
-        } else {
-            globals.assign(expr.name, value);
+        if (expr.depth >= 0) {
+            environment.assignAt(expr.depth, expr.name, value);
+            return value;
         }
 
+        return assignGlobal(expr, value);
+    }
+
+    Object assignGlobal(Expr.Assign expr, Object value) {
+        // Another thread may be filling in the same index; it can only write the same value.
+        if (expr.global < 0) expr.global = globalIndex(expr.name);
+        Environment.Cell cell = globalCell(expr.global, expr.name);
+        if (!cell.isMutable) {
+            throw new RuntimeError(expr.name, "Cannot reassign constant.");
+        }
+        cell.value = value;
         return value;
     }
 
@@ -261,63 +458,32 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return evaluate(expr.right);
     }
 
+    // Waits for a task and returns its result. Anything else is already a result.
+    @Override
+    public Object visitAwaitExpr(Expr.Await expr) {
+        Object value = evaluate(expr.value);
+        if (!(value instanceof LoxTask)) return value;
+        try {
+            return ((LoxTask) value).join();
+        } catch (Natives.NativeError error) {
+            throw new RuntimeError(expr.keyword, error.getMessage());
+        }
+    }
+
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
         switch (expr.operator.type) {
-            case GREATER:
-                if (left instanceof String && right instanceof String) {
-                    return ((String)left).compareTo((String)right) > 0;
-                }
-                if (left instanceof Double && right instanceof Double) return (double)left > (double)right;
-
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
-            case GREATER_EQUAL:
-                if (left instanceof String && right instanceof String) {
-                    return ((String)left).compareTo((String)right) >= 0;
-                }
-                if (left instanceof Double && right instanceof Double) return (double)left >= (double)right;
-
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
-            case LESS:
-                if (left instanceof String && right instanceof String) {
-                    return ((String)left).compareTo((String)right) < 0;
-                }
-                if (left instanceof Double && right instanceof Double) return (double)left < (double)right;
-
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
-            case LESS_EQUAL:
-                if (left instanceof String && right instanceof String) {
-                    return ((String)left).compareTo((String)right) <= 0;
-                }
-                if (left instanceof Double && right instanceof Double) return (double)left <= (double)right;
-
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
-            case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
-            case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
-                }
-
-                if (left instanceof String || right instanceof String) {
-                    return stringify(left) + stringify(right);
-                }
-
-                throw new RuntimeError(
-                        expr.operator,
-                        "Operands must be two numbers or a string and another object."
-                );
-            case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                if ((double)right == 0.0) throw new RuntimeError(expr.operator, "Division by zero.");
-                return (double)left / (double)right;
-            case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
+            case GREATER: return Operators.greater(expr.operator, left, right);
+            case GREATER_EQUAL: return Operators.greaterEqual(expr.operator, left, right);
+            case LESS: return Operators.less(expr.operator, left, right);
+            case LESS_EQUAL: return Operators.lessEqual(expr.operator, left, right);
+            case MINUS: return Operators.subtract(expr.operator, left, right);
+            case PLUS: return Operators.add(expr.operator, left, right);
+            case SLASH: return Operators.divide(expr.operator, left, right);
+            case STAR: return Operators.multiply(expr.operator, left, right);
             case BANG_EQUAL: return !isEqual(left, right);
             case EQUAL_EQUAL: return isEqual(left, right);
             case COMMA: return right;
@@ -331,24 +497,48 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
 
-        List<Object> arguments = new ArrayList<>();
+        List<Object> arguments = new ArrayList<>(expr.arguments.length);
         for (Expr argument : expr.arguments) {
             arguments.add(evaluate(argument));
         }
 
+        return call(callee, expr.paren, arguments);
+    }
+
+    Object call(Object callee, Token paren, List<Object> arguments) {
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+            throw new RuntimeError(paren, "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable)callee;
         if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren,
+            throw new RuntimeError(paren,
                     "Expected " + function.arity() + " arguments but got "
                     + arguments.size() + "."
             );
         }
 
-        return function.call(this, arguments);
+        enterCall(paren);
+        try {
+            return function.call(this, arguments);
+        } catch (Natives.NativeError error) {
+            throw new RuntimeError(paren, error.getMessage());
+        } finally {
+            exitCall();
+        }
+    }
+
+    // Compiled code calls these around a call it makes directly, with the arity checked.
+    void enterCall(Token paren) {
+        tick(paren);
+        if (depth == budget.maxDepth) {
+            throw new RuntimeError(paren, "Calls nested more than " + depth + " deep.");
+        }
+        depth++;
+    }
+
+    void exitCall() {
+        depth--;
     }
 
     @Override
@@ -359,8 +549,40 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
+        // A frozen field can't change, so each node keeps the first one it reads.
+        LoxInstance.FrozenField cached = frozenRead(expr.id);
+        if (cached != null && cached.instance() == object) return cached.value();
+
+        if (object instanceof LoxInstance && cached == null && expr.id >= 0) {
+            LoxInstance.FrozenField frozen = ((LoxInstance) object).frozenField(expr.name.lexeme);
+            if (frozen != null) {
+                keepFrozenRead(expr.id, frozen);
+                return frozen.value();
+            }
+        }
+
+        return getProperty(object, expr.name);
+    }
+
+    // Nodes the resolver never saw, such as a REPL expression's, have no id and aren't kept.
+    private LoxInstance.FrozenField frozenRead(int id) {
+        if (frozenReads == null || id < 0 || id >= frozenReads.length) return null;
+        return frozenReads[id];
+    }
+
+    // The program may have grown since the table was made, in the REPL or --incremental.
+    private void keepFrozenRead(int id, LoxInstance.FrozenField frozen) {
+        if (frozenReads == null || id >= frozenReads.length) {
+            int length = Math.max(program.nodeCount(), id + 1);
+            frozenReads = frozenReads == null
+                    ? new LoxInstance.FrozenField[length] : Arrays.copyOf(frozenReads, length);
+        }
+        frozenReads[id] = frozen;
+    }
+
+    Object getProperty(Object object, Token name) {
         if (object instanceof LoxInstance) {
-            Object value = ((LoxInstance)object).get(expr.name);
+            Object value = ((LoxInstance)object).get(name);
             if ((value instanceof LoxFunction) && ((LoxFunction) value).isGetter()) {
                 return ((LoxFunction) value).call(this, Collections.emptyList());
             }
@@ -368,7 +590,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             return value;
         }
 
-        throw new RuntimeError(expr.name, "Only instances have properties");
+        throw new RuntimeError(name, "Only instances have properties");
     }
 
     @Override
@@ -396,27 +618,32 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSetExpr(Expr.Set expr) {
-        Object object = evaluate(expr.object);
+        LoxInstance object = fieldsOf(expr.name, evaluate(expr.object));
+        return setProperty(object, expr.name, evaluate(expr.value));
+    }
 
+    // Checked before the value is evaluated.
+    static LoxInstance fieldsOf(Token name, Object object) {
         if (!(object instanceof LoxInstance)) {
-            throw new RuntimeError(expr.name, "Only instances have fields.");
+            throw new RuntimeError(name, "Only instances have fields.");
         }
+        return (LoxInstance) object;
+    }
 
-        Object value = evaluate(expr.value);
-
+    Object setProperty(LoxInstance object, Token name, Object value) {
         // A setter has a "=" suffix.
-        LoxFunction setter = ((LoxInstance) object).getMethod(expr.name.lexeme + "=");
+        LoxFunction setter = object.getMethod(name.lexeme + "=");
         if (setter != null) {
             setter.call(this, Collections.singletonList(value));
         } else {
-            ((LoxInstance) object).set(expr.name, value);
+            object.set(name, value);
         }
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
+        int distance = expr.depth;
         LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
 
         LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
@@ -444,8 +671,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             case BANG:
                 return !isTruthy(right);
             case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return -(double)right;
+                return Operators.negate(expr.operator, right);
         }
 
         // Unreachable
@@ -454,48 +680,125 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        if (expr.depth >= 0) {
+            return environment.getAt(expr.depth, expr.name.lexeme);
+        }
+
+        return readGlobal(expr);
+    }
+
+    Object readGlobal(Expr.Variable expr) {
+        if (expr.global < 0) expr.global = globalIndex(expr.name);
+        return globalCell(expr.global, expr.name).value;
+    }
+
+    // A name only gets an index once it has been found, so a misspelt one doesn't take up a
+    // slot in every interpreter's cells.
+    private int globalIndex(Token name) {
+        Environment.Cell cell = globals.lookUp(name);
+        int index = program.globalIndex(name.lexeme);
+        reserveGlobalCell(index);
+        globalCells[index] = cell;
+        return index;
+    }
+
+    // Globals are looked up by name once, then read straight from their cell.
+    private Environment.Cell globalCell(int index, Token name) {
+        reserveGlobalCell(index);
+        Environment.Cell cell = globalCells[index];
+        if (cell == null) cell = globalCells[index] = globals.lookUp(name);
+        return cell;
+    }
+
+    // Indexes found by other interpreters running the program may be past the end.
+    private void reserveGlobalCell(int index) {
+        if (index >= globalCells.length) {
+            globalCells = Arrays.copyOf(globalCells, Math.max(index + 1, globalCells.length * 2));
+        }
     }
 
     private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+        if (expr.depth >= 0) {
+            return environment.getAt(expr.depth, name.lexeme);
         } else {
             return globals.get(name);
         }
     }
 
-    private Object parseInput(String input) {
+    static Object parseInput(String input) {
         if (input.equals("nil")) return null;
         if (input.equals("true")) return Boolean.TRUE;
         if (input.equals("false")) return Boolean.FALSE;
-        try {
-            return Double.parseDouble(input);
-        } catch (NumberFormatException ignored) {}
+        Double number = parseNumber(input);
+        if (number != null) return number;
 
         // If other checks fail, it's just a string.
         return input;
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Double) return;
-        throw new RuntimeError(operator, "Operand must be a number.");
+    // Returns the number the text spells, or null if it isn't one.
+    static Double parseNumber(String text) {
+        switch (numberSyntax(text)) {
+            case 1:
+                return Double.parseDouble(text);
+            case 0:
+                try {
+                    return Double.parseDouble(text);
+                } catch (NumberFormatException ignored) {}
+        }
+        return null;
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
+    // Classifies input without throwing: 1 for a number parseDouble will accept, -1 for
+    // something that can't be a number at all, and 0 for hex, which is left to parseDouble.
+    private static int numberSyntax(String input) {
+        int length = input.length();
+        // parseDouble ignores surrounding whitespace.
+        int i = 0;
+        while (i < length && input.charAt(i) <= ' ') i++;
+        while (length > i && input.charAt(length - 1) <= ' ') length--;
+        if (i == length) return -1;
+
+        char c = input.charAt(i);
+        if (c == '+' || c == '-') {
+            if (++i == length) return -1;
+            c = input.charAt(i);
+        }
+        if (c == 'N' || c == 'I') {
+            String word = c == 'N' ? "NaN" : "Infinity";
+            return length - i == word.length() && input.startsWith(word, i) ? 1 : -1;
+        }
+        if (c == '0' && i + 1 < length && (input.charAt(i + 1) | 0x20) == 'x') return 0;
+
+        int digits = 0;
+        while (i < length && isDigit(input.charAt(i))) { i++; digits++; }
+        if (i < length && input.charAt(i) == '.') {
+            i++;
+            while (i < length && isDigit(input.charAt(i))) { i++; digits++; }
+        }
+        if (digits == 0) return -1;
+        if (i < length && (input.charAt(i) | 0x20) == 'e') {
+            if (++i < length && (input.charAt(i) == '+' || input.charAt(i) == '-')) i++;
+            int exponent = i;
+            while (i < length && isDigit(input.charAt(i))) i++;
+            if (i == exponent) return -1;
+        }
+        // A Java type suffix.
+        if (i < length && "dDfF".indexOf(input.charAt(i)) >= 0) i++;
+        return i == length ? 1 : -1;
+    }
 
-        throw new RuntimeError(operator, "Operands must be numbers.");
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
 
@@ -503,7 +806,6 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     private String stringify(Object object) {
-        LoxCallable function = Natives.all.get("stringify");
-        return (String) function.call(this, Collections.singletonList(object));
+        return Natives.stringify(object);
     }
 }
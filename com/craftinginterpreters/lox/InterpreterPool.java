@@ -0,0 +1,29 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// A fixed number of interpreters with their globals already set up, reset and reused from
+// run to run. Taking one blocks until one is free, so the pool also bounds how many scripts
+// run at once. An interpreter that spawned a task is replaced rather than reused, since the
+// task may still be using its globals.
+class InterpreterPool {
+    private final BlockingQueue<Interpreter> idle;
+
+    InterpreterPool(int size) {
+        idle = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            idle.add(new Interpreter());
+        }
+    }
+
+    Interpreter take(ErrorReporter errors, Input input, Output output) throws InterruptedException {
+        Interpreter interpreter = idle.take();
+        interpreter.attach(errors, input, output);
+        return interpreter;
+    }
+
+    void release(Interpreter interpreter) {
+        idle.add(interpreter.reset() ? interpreter : new Interpreter());
+    }
+}
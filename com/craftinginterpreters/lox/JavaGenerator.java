@@ -0,0 +1,682 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Writes the Java source loxc compiles a resolved script to: a class for each top-level
+// function, and a program class with the top-level statements that have loops in them and
+// the main method. Locals become Java locals and globals are read through the interpreter's
+// cells. Classes, closures, this, super, await and async functions are left in the tree for
+// the interpreter, which runs everything that wasn't compiled as it always has.
+class JavaGenerator implements Stmt.Visitor<Void>, Expr.Visitor<String> {
+    // Thrown for anything outside the subset, which leaves the function or statement alone.
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Keeps each generated method well under the JVM's 64K limit.
+    private static final int MAX_NODES = 2000;
+
+    private static class Local {
+        final String name;
+        boolean isMutable;
+
+        Local(String name, boolean isMutable) {
+            this.name = name;
+            this.isMutable = isMutable;
+        }
+    }
+
+    private final String script;
+    private final String prefix;
+    // The compiled functions that call sites can call directly, by name.
+    private final Map<String, Stmt.Function> direct = new HashMap<>();
+    private final Map<Stmt.Function, String> classNames = new LinkedHashMap<>();
+
+    // The class being written: its constants, and the fields declaring them.
+    private final Map<String, String> constants = new HashMap<>();
+    private StringBuilder fields;
+
+    // The method being written.
+    private StringBuilder code;
+    private int indent;
+    private final List<Map<String, Local>> scopes = new ArrayList<>();
+    private final Deque<Integer> loops = new ArrayDeque<>();
+    private int labels;
+    private int temps;
+    private int locals;
+    private int nodes;
+
+    JavaGenerator(String script, String prefix) {
+        this.script = script;
+        this.prefix = prefix;
+    }
+
+    String programClass() {
+        return prefix + "Program";
+    }
+
+    // The source of each class, by name.
+    Map<String, String> generate(List<Stmt> statements) {
+        // Find out what can be compiled before writing any call sites.
+        Set<String> names = new HashSet<>();
+        Set<String> redefined = new HashSet<>();
+        for (Stmt statement : statements) {
+            if (!(statement instanceof Stmt.Function)) continue;
+            Stmt.Function function = (Stmt.Function) statement;
+            if (!names.add(function.name.lexeme)) redefined.add(function.name.lexeme);
+            if (function.isAsync) continue;
+            try {
+                startClass();
+                function(function);
+            } catch (Unsupported e) {
+                continue;
+            }
+            String className = prefix + "_" + function.name.lexeme;
+            while (classNames.containsValue(className)) className += "_";
+            classNames.put(function, className);
+        }
+        for (Stmt.Function function : classNames.keySet()) {
+            if (!redefined.contains(function.name.lexeme)) direct.put(function.name.lexeme, function);
+        }
+
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (Map.Entry<Stmt.Function, String> entry : classNames.entrySet()) {
+            sources.put(entry.getValue(), functionClass(entry.getKey(), entry.getValue()));
+        }
+        sources.put(programClass(), programClass(statements));
+        return sources;
+    }
+
+    private String functionClass(Stmt.Function function, String className) {
+        startClass();
+        String body = function(function);
+
+        StringBuilder parameters = new StringBuilder();
+        StringBuilder arguments = new StringBuilder();
+        StringBuilder fromList = new StringBuilder();
+        for (int i = 0; i < function.params.length; i++) {
+            parameters.append(", Object a").append(i);
+            arguments.append(", a").append(i);
+            fromList.append(i == 0 ? "" : ", ").append("arguments.get(").append(i).append(")");
+        }
+        String arrayArguments = arguments.length() == 0 ? "" : arguments.substring(2);
+
+        return "package com.craftinginterpreters.lox;\n\n" +
+                "import java.util.List;\n\n" +
+                "// fun " + function.name.lexeme + ", line " + function.name.line + " of " + script +
+                ", compiled by loxc.\n" +
+                "final class " + className + " extends CompiledFunction {\n" +
+                fields +
+                "\n" +
+                "    " + className + "(Stmt.Function declaration, Environment closure) {\n" +
+                "        super(declaration, closure);\n" +
+                "    }\n\n" +
+                "    @Override\n" +
+                "    public Object call(Interpreter interpreter, List<Object> arguments) {\n" +
+                "        return body(interpreter" + (fromList.length() == 0 ? "" : ", ") + fromList + ");\n" +
+                "    }\n\n" +
+                "    // For call sites that expect this function. Anything else goes to the interpreter.\n" +
+                "    static Object invoke(Interpreter interpreter, Token paren, Object callee" + parameters + ") {\n" +
+                "        if (!(callee instanceof " + className + ")) {\n" +
+                "            return CompiledFunction.call(interpreter, paren, callee, new Object[] {" +
+                arrayArguments + "});\n" +
+                "        }\n" +
+                "        interpreter.enterCall(paren);\n" +
+                "        try {\n" +
+                "            return body(interpreter" + arguments + ");\n" +
+                "        } catch (Natives.NativeError error) {\n" +
+                "            throw new RuntimeError(paren, error.getMessage());\n" +
+                "        } finally {\n" +
+                "            interpreter.exitCall();\n" +
+                "        }\n" +
+                "    }\n\n" +
+                body +
+                "}\n";
+    }
+
+    private String programClass(List<Stmt> statements) {
+        startClass();
+        StringBuilder links = new StringBuilder();
+        StringBuilder methods = new StringBuilder();
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt statement = statements.get(i);
+            String className = classNames.get(statement);
+            if (className != null) {
+                links.append("        linked.set(").append(i).append(", CompiledFunction.define(new ")
+                        .append(className).append("((Stmt.Function) statements.get(").append(i)
+                        .append("), globals)));\n");
+                continue;
+            }
+
+            Token loop = firstLoop(statement);
+            if (loop == null || statement instanceof Stmt.Function || statement instanceof Stmt.Class) {
+                continue;
+            }
+            String method;
+            try {
+                method = topLevel(statement, "statement" + i);
+            } catch (Unsupported e) {
+                continue;
+            }
+            methods.append("\n").append(method);
+            links.append("        linked.set(").append(i).append(", CompiledFunction.statement(")
+                    .append(token(loop)).append(", ").append(programClass()).append("::statement")
+                    .append(i).append("));\n");
+        }
+
+        return "package com.craftinginterpreters.lox;\n\n" +
+                "import java.io.IOException;\n" +
+                "import java.util.ArrayList;\n" +
+                "import java.util.List;\n\n" +
+                "// " + script + ", compiled by loxc. Its functions have a class each, the top-level\n" +
+                "// statements with loops are compiled here, and the rest runs on the interpreter.\n" +
+                "public final class " + programClass() + " {\n" +
+                fields +
+                "\n" +
+                "    public static void main(String[] args) throws IOException {\n" +
+                "        Lox.runCompiled(" + programClass() + ".class.getResourceAsStream(\"" +
+                programClass() + ".ast\"), " + programClass() + "::link);\n" +
+                "    }\n\n" +
+                "    // Swaps the compiled code into the tree read from the image.\n" +
+                "    private static List<Stmt> link(List<Stmt> statements, Environment globals) {\n" +
+                "        List<Stmt> linked = new ArrayList<>(statements);\n" +
+                links +
+                "        return linked;\n" +
+                "    }\n" +
+                methods +
+                "}\n";
+    }
+
+    // The keyword of the first loop in a statement, or null if it has none.
+    private static Token firstLoop(Stmt statement) {
+        if (statement instanceof Stmt.While) return ((Stmt.While) statement).keyword;
+        if (statement instanceof Stmt.Block) {
+            for (Stmt inner : ((Stmt.Block) statement).statements) {
+                Token loop = firstLoop(inner);
+                if (loop != null) return loop;
+            }
+        }
+        if (statement instanceof Stmt.If) {
+            Token loop = firstLoop(((Stmt.If) statement).thenBranch);
+            if (loop == null && ((Stmt.If) statement).elseBranch != null) {
+                loop = firstLoop(((Stmt.If) statement).elseBranch);
+            }
+            return loop;
+        }
+        return null;
+    }
+
+    private void startClass() {
+        constants.clear();
+        fields = new StringBuilder();
+    }
+
+    private void startMethod() {
+        code = new StringBuilder();
+        indent = 2;
+        scopes.clear();
+        loops.clear();
+        labels = 0;
+        temps = 0;
+        locals = 0;
+        nodes = 0;
+    }
+
+    // The body method of a function, whose parameters are its first scope.
+    private String function(Stmt.Function function) {
+        startMethod();
+        Map<String, Local> parameters = new HashMap<>();
+        scopes.add(parameters);
+        StringBuilder signature = new StringBuilder("Interpreter interpreter");
+        for (Token param : function.params) {
+            if (parameters.containsKey(param.lexeme)) throw new Unsupported();
+            Local local = new Local(javaName(param), true);
+            parameters.put(param.lexeme, local);
+            signature.append(", Object ").append(local.name);
+        }
+        for (Stmt statement : function.body) {
+            emit(statement);
+        }
+        return method("private static Object body(" + signature + ")");
+    }
+
+    // A top-level statement, whose locals start from no scope at all.
+    private String topLevel(Stmt statement, String name) {
+        startMethod();
+        emit(statement);
+        return method("private static Object " + name + "(Interpreter interpreter)");
+    }
+
+    private String method(String header) {
+        StringBuilder method = new StringBuilder();
+        method.append("    ").append(header).append(" {\n");
+        method.append("        Object ignored;\n");
+        for (int i = 0; i < temps; i++) {
+            method.append("        Object t").append(i).append(";\n");
+        }
+        method.append(code);
+        method.append("        return null;\n");
+        method.append("    }\n");
+        return method.toString();
+    }
+
+    private String javaName(Token name) {
+        return "l_" + name.lexeme + "_" + locals++;
+    }
+
+    private void line(String text) {
+        code.append("    ".repeat(indent)).append(text).append('\n');
+    }
+
+    private void count() {
+        if (++nodes > MAX_NODES) throw new Unsupported();
+    }
+
+    private void emit(Stmt stmt) {
+        count();
+        stmt.accept(this);
+    }
+
+    // The inside of the braces of an if or loop. A branch that is a declaration would declare
+    // into the enclosing scope only some of the time, which Java's blocks can't follow.
+    private void emitBranch(Stmt stmt) {
+        if (stmt instanceof Stmt.Var || stmt instanceof Stmt.Val) throw new Unsupported();
+        indent++;
+        if (stmt instanceof Stmt.Block) {
+            count();
+            emitScope(((Stmt.Block) stmt).statements);
+        } else {
+            emit(stmt);
+        }
+        indent--;
+    }
+
+    private void emitScope(Stmt[] statements) {
+        beginScope();
+        for (Stmt statement : statements) {
+            emit(statement);
+        }
+        endScope();
+    }
+
+    // An expression whose Java type is Object.
+    private String value(Expr expr) {
+        count();
+        return expr.accept(this);
+    }
+
+    // An expression as a Java boolean, skipping the boxing for comparisons and logic.
+    private String condition(Expr expr) {
+        if (expr instanceof Expr.Grouping) return condition(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == TokenType.BANG) {
+            count();
+            return "!" + condition(((Expr.Unary) expr).right);
+        }
+        if (expr instanceof Expr.Logical) {
+            count();
+            Expr.Logical logical = (Expr.Logical) expr;
+            String operator = logical.operator.type == TokenType.OR ? " || " : " && ";
+            return "(" + condition(logical.left) + operator + condition(logical.right) + ")";
+        }
+        if (expr instanceof Expr.Binary) {
+            String comparison = comparison((Expr.Binary) expr);
+            if (comparison != null) return comparison;
+        }
+        return "Interpreter.isTruthy(" + value(expr) + ")";
+    }
+
+    // A comparison or equality as a Java boolean, or null for the other operators.
+    private String comparison(Expr.Binary expr) {
+        String method;
+        switch (expr.operator.type) {
+            case GREATER: method = "Operators.greater"; break;
+            case GREATER_EQUAL: method = "Operators.greaterEqual"; break;
+            case LESS: method = "Operators.less"; break;
+            case LESS_EQUAL: method = "Operators.lessEqual"; break;
+            case EQUAL_EQUAL:
+                count();
+                return "Interpreter.isEqual(" + value(expr.left) + ", " + value(expr.right) + ")";
+            case BANG_EQUAL:
+                count();
+                return "!Interpreter.isEqual(" + value(expr.left) + ", " + value(expr.right) + ")";
+            default: return null;
+        }
+        count();
+        return method + "(" + token(expr.operator) + ", " + value(expr.left) + ", " + value(expr.right) + ")";
+    }
+
+    private void beginScope() {
+        scopes.add(new HashMap<>());
+    }
+
+    private void endScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    // The Java local for a variable the resolver found depth scopes out.
+    private Local local(Token name, int depth) {
+        int scope = scopes.size() - 1 - depth;
+        Local local = scope < 0 ? null : scopes.get(scope).get(name.lexeme);
+        if (local == null) throw new Unsupported();
+        return local;
+    }
+
+    // Declaring a name again in the same scope reuses its variable, as the interpreter
+    // reuses its cell.
+    private void declare(Token name, String value, boolean isMutable) {
+        if (scopes.isEmpty()) throw new Unsupported();
+        Map<String, Local> scope = scopes.get(scopes.size() - 1);
+        Local local = scope.get(name.lexeme);
+        if (local == null) {
+            local = new Local(javaName(name), isMutable);
+            scope.put(name.lexeme, local);
+            line("Object " + local.name + " = " + value + ";");
+        } else {
+            line(local.name + " = " + value + ";");
+            local.isMutable = isMutable;
+        }
+    }
+
+    // Constants are static fields of the class being written.
+    private String constant(String key, String type, String initializer) {
+        String field = constants.get(key);
+        if (field == null) {
+            field = key.substring(0, 1) + constants.size();
+            constants.put(key, field);
+            fields.append("    private static final ").append(type).append(' ').append(field)
+                    .append(" = ").append(initializer).append(";\n");
+        }
+        return field;
+    }
+
+    private String token(Token token) {
+        return constant("T" + token.type + " " + token.line + " " + token.lexeme, "Token",
+                "new Token(TokenType." + token.type + ", " + javaString(token.lexeme) + ", null, " +
+                token.line + ")");
+    }
+
+    // A node standing in for a global variable, for the interpreter to keep its cell index in.
+    private String globalRead(Token name) {
+        return constant("G" + name.lexeme, "Expr.Variable", "new Expr.Variable(" + token(name) + ")");
+    }
+
+    private String globalAssign(Token name) {
+        return constant("A" + name.lexeme, "Expr.Assign", "new Expr.Assign(" + token(name) + ", null)");
+    }
+
+    private static String javaString(String text) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            switch (c) {
+                case '"': builder.append("\\\""); break;
+                case '\\': builder.append("\\\\"); break;
+                case '\n': builder.append("\\n"); break;
+                case '\r': builder.append("\\r"); break;
+                case '\t': builder.append("\\t"); break;
+                default:
+                    if (c < ' ' || c > '~') {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private String temp() {
+        return "t" + temps++;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        line("{");
+        indent++;
+        emitScope(stmt.statements);
+        indent--;
+        line("}");
+        return null;
+    }
+
+    // Statements after a jump would be unreachable to javac, but Lox allows them.
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        line("if (true) break L" + loops.peek() + ";");
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    // A continue goes to the back-edge, which counts the iteration, and skips whatever
+    // follows in the body. In a for loop that includes the increment, as in the interpreter.
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        line("if (true) break C" + loops.peek() + ";");
+        return null;
+    }
+
+    @Override
+    public Void visitEmptyStmt(Stmt.Empty stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        line("ignored = " + value(stmt.expression) + ";");
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        line("if (" + condition(stmt.condition) + ") {");
+        emitBranch(stmt.thenBranch);
+        if (stmt.elseBranch != null) {
+            line("} else {");
+            emitBranch(stmt.elseBranch);
+        }
+        line("}");
+        return null;
+    }
+
+    @Override
+    public Void visitInputStmt(Stmt.Input stmt) {
+        String input = "interpreter.readInput(" + token(stmt.keyword) + ")";
+        if (stmt.variable.depth < 0) {
+            line("ignored = interpreter.assignGlobal(" + globalAssign(stmt.variable.name) + ", " + input + ");");
+            return null;
+        }
+        Local local = local(stmt.variable.name, stmt.variable.depth);
+        if (!local.isMutable) throw new Unsupported();
+        line(local.name + " = " + input + ";");
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        line("interpreter.printValue(" + value(stmt.expression) + ");");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line("if (true) return " + (stmt.value == null ? "null" : value(stmt.value)) + ";");
+        return null;
+    }
+
+    @Override
+    public Void visitValStmt(Stmt.Val stmt) {
+        declare(stmt.name, value(stmt.initializer), false);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        declare(stmt.name, stmt.initializer == null ? "null" : value(stmt.initializer), true);
+        return null;
+    }
+
+    // Labelled L for break and C for continue, which falls through to the tick.
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int label = labels++;
+        line("L" + label + ": while (" + condition(stmt.condition) + ") {");
+        indent++;
+        line("C" + label + ": {");
+        loops.push(label);
+        emitBranch(stmt.body);
+        loops.pop();
+        line("}");
+        line("interpreter.tick(" + token(stmt.keyword) + ");");
+        indent--;
+        line("}");
+        return null;
+    }
+
+    @Override
+    public String visitAssignExpr(Expr.Assign expr) {
+        String value = value(expr.value);
+        if (expr.depth < 0) {
+            return "interpreter.assignGlobal(" + globalAssign(expr.name) + ", " + value + ")";
+        }
+        Local local = local(expr.name, expr.depth);
+        if (!local.isMutable) {
+            return "CompiledFunction.reassignConstant(" + token(expr.name) + ", " + value + ")";
+        }
+        return "(" + local.name + " = " + value + ")";
+    }
+
+    @Override
+    public String visitAwaitExpr(Expr.Await expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public String visitBinaryExpr(Expr.Binary expr) {
+        String comparison = comparison(expr);
+        if (comparison != null) return "((Object) " + comparison + ")";
+
+        String left = value(expr.left);
+        String right = value(expr.right);
+        String operator = token(expr.operator);
+        switch (expr.operator.type) {
+            case MINUS: return "((Object) Operators.subtract(" + operator + ", " + left + ", " + right + "))";
+            case PLUS: return "Operators.add(" + operator + ", " + left + ", " + right + ")";
+            case SLASH: return "((Object) Operators.divide(" + operator + ", " + left + ", " + right + "))";
+            case STAR: return "((Object) Operators.multiply(" + operator + ", " + left + ", " + right + "))";
+            case COMMA: return "CompiledFunction.comma(" + left + ", " + right + ")";
+        }
+        throw new Unsupported();
+    }
+
+    // A call to a compiled function by its global name goes straight to its code, once the
+    // callee turns out to be that function.
+    @Override
+    public String visitCallExpr(Expr.Call expr) {
+        String callee = value(expr.callee);
+        StringBuilder arguments = new StringBuilder();
+        for (Expr argument : expr.arguments) {
+            arguments.append(", ").append(value(argument));
+        }
+
+        if (expr.callee instanceof Expr.Variable && expr.callee.depth < 0) {
+            Stmt.Function function = direct.get(((Expr.Variable) expr.callee).name.lexeme);
+            if (function != null && function.params.length == expr.arguments.length) {
+                return classNames.get(function) + ".invoke(interpreter, " + token(expr.paren) + ", " +
+                        callee + arguments + ")";
+            }
+        }
+        return "CompiledFunction.call(interpreter, " + token(expr.paren) + ", " + callee +
+                ", new Object[] {" + (arguments.length() == 0 ? "" : arguments.substring(2)) + "})";
+    }
+
+    @Override
+    public String visitConditionalExpr(Expr.Conditional expr) {
+        return "(" + condition(expr.condition) + " ? " + value(expr.left) + " : " + value(expr.right) + ")";
+    }
+
+    @Override
+    public String visitFunctionExpr(Expr.Function expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public String visitGetExpr(Expr.Get expr) {
+        return "interpreter.getProperty(" + value(expr.object) + ", " + token(expr.name) + ")";
+    }
+
+    @Override
+    public String visitGroupingExpr(Expr.Grouping expr) {
+        return value(expr.expression);
+    }
+
+    @Override
+    public String visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) return "null";
+        if (expr.value instanceof Boolean) return (Boolean) expr.value ? "Boolean.TRUE" : "Boolean.FALSE";
+        if (expr.value instanceof String) return "((Object) " + javaString((String) expr.value) + ")";
+        if (expr.value instanceof Double) {
+            double number = (Double) expr.value;
+            long bits = Double.doubleToRawLongBits(number);
+            return constant("K" + bits, "Object", Double.isFinite(number)
+                    ? Double.toString(number) : "Double.longBitsToDouble(" + bits + "L)");
+        }
+        throw new Unsupported();
+    }
+
+    // The value of the side that decides the result, which a temporary holds on to.
+    @Override
+    public String visitLogicalExpr(Expr.Logical expr) {
+        String temp = temp();
+        String test = "Interpreter.isTruthy(" + temp + " = " + value(expr.left) + ")";
+        String right = value(expr.right);
+        if (expr.operator.type == TokenType.OR) return "(" + test + " ? " + temp + " : " + right + ")";
+        return "(" + test + " ? " + right + " : " + temp + ")";
+    }
+
+    @Override
+    public String visitSetExpr(Expr.Set expr) {
+        String name = token(expr.name);
+        return "interpreter.setProperty(Interpreter.fieldsOf(" + name + ", " + value(expr.object) + "), " +
+                name + ", " + value(expr.value) + ")";
+    }
+
+    @Override
+    public String visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public String visitThisExpr(Expr.This expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public String visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.BANG) return "((Object) " + condition(expr) + ")";
+        return "((Object) Operators.negate(" + token(expr.operator) + ", " + value(expr.right) + "))";
+    }
+
+    @Override
+    public String visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth < 0) return "interpreter.readGlobal(" + globalRead(expr.name) + ")";
+        return local(expr.name, expr.depth).name;
+    }
+}
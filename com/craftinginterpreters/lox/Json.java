@@ -0,0 +1,288 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Lazy JSON values. Objects and arrays stay as text: they only find where their members start
+// when first asked, and a member becomes a Lox value when it is read. Until a value is read,
+// only the nesting around it is checked.
+class Json {
+    private static final Object UNREAD = new Object();
+
+    static final class LazyObject {
+        private final String text;
+        private final int start;
+        private final int end;
+
+        private int count = -1;
+        private String[] keys;
+        private int[] offsets;
+        private Object[] values;
+        // Only built for objects with enough keys that scanning them would be slow.
+        private Map<String, Integer> index = null;
+
+        private LazyObject(String text, int start, int end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        int size() {
+            members();
+            return count;
+        }
+
+        boolean has(String key) {
+            return find(key) >= 0;
+        }
+
+        // Returns nil for a missing key.
+        Object get(String key) {
+            int slot = find(key);
+            if (slot < 0) return null;
+            if (values[slot] == UNREAD) values[slot] = read(text, offsets[slot]);
+            return values[slot];
+        }
+
+        LoxList keys() {
+            members();
+            LoxList list = new LoxList();
+            for (int i = 0; i < count; i++) {
+                if (find(keys[i]) == i) list.push(keys[i]);
+            }
+            return list;
+        }
+
+        // Later duplicates win, as they would if the object were read eagerly.
+        private int find(String key) {
+            members();
+            if (index != null) {
+                Integer slot = index.get(key);
+                return slot == null ? -1 : slot;
+            }
+            for (int i = count - 1; i >= 0; i--) {
+                if (keys[i].equals(key)) return i;
+            }
+            return -1;
+        }
+
+        private void members() {
+            if (count >= 0) return;
+            keys = new String[8];
+            offsets = new int[8];
+            int n = 0;
+
+            int i = skipWhitespace(text, start + 1);
+            if (at(text, i) != '}') {
+                while (true) {
+                    if (at(text, i) != '"') throw invalid();
+                    String key = readString(text, i);
+                    i = skipWhitespace(text, skipString(text, i));
+                    if (at(text, i) != ':') throw invalid();
+                    i = skipWhitespace(text, i + 1);
+
+                    if (n == keys.length) {
+                        keys = Arrays.copyOf(keys, n * 2);
+                        offsets = Arrays.copyOf(offsets, n * 2);
+                    }
+                    keys[n] = key;
+                    offsets[n] = i;
+                    n++;
+
+                    i = skipWhitespace(text, skip(text, i));
+                    if (at(text, i) == '}') break;
+                    if (at(text, i) != ',') throw invalid();
+                    i = skipWhitespace(text, i + 1);
+                }
+            }
+
+            values = new Object[n];
+            Arrays.fill(values, UNREAD);
+            if (n > 8) {
+                index = new HashMap<>();
+                for (int k = 0; k < n; k++) index.put(keys[k], k);
+            }
+            count = n;
+        }
+
+        @Override
+        public String toString() {
+            return text.substring(start, end);
+        }
+    }
+
+    static final class LazyArray {
+        private final String text;
+        private final int start;
+        private final int end;
+
+        private int count = -1;
+        private int[] offsets;
+        private Object[] values;
+
+        private LazyArray(String text, int start, int end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        int size() {
+            elements();
+            return count;
+        }
+
+        Object get(int index) {
+            elements();
+            if (values[index] == UNREAD) values[index] = read(text, offsets[index]);
+            return values[index];
+        }
+
+        private void elements() {
+            if (count >= 0) return;
+            offsets = new int[8];
+            int n = 0;
+
+            int i = skipWhitespace(text, start + 1);
+            if (at(text, i) != ']') {
+                while (true) {
+                    if (n == offsets.length) offsets = Arrays.copyOf(offsets, n * 2);
+                    offsets[n++] = i;
+
+                    i = skipWhitespace(text, skip(text, i));
+                    if (at(text, i) == ']') break;
+                    if (at(text, i) != ',') throw invalid();
+                    i = skipWhitespace(text, i + 1);
+                }
+            }
+
+            values = new Object[n];
+            Arrays.fill(values, UNREAD);
+            count = n;
+        }
+
+        @Override
+        public String toString() {
+            return text.substring(start, end);
+        }
+    }
+
+    // Returns the Lox value for the JSON value starting at start.
+    static Object read(String text, int start) {
+        switch (at(text, start)) {
+            case '{': return new LazyObject(text, start, skip(text, start));
+            case '[': return new LazyArray(text, start, skip(text, start));
+            case '"': return readString(text, start);
+        }
+
+        int end = skip(text, start);
+        String scalar = text.substring(start, end);
+        switch (scalar) {
+            case "true": return Boolean.TRUE;
+            case "false": return Boolean.FALSE;
+            case "null": return null;
+        }
+        for (int i = 0; i < scalar.length(); i++) {
+            if ("+-.0123456789eE".indexOf(scalar.charAt(i)) < 0) throw invalid();
+        }
+        Double number = Interpreter.parseNumber(scalar);
+        if (number == null) throw invalid();
+        return number;
+    }
+
+    // Returns the index just past the value starting at start.
+    static int skip(String text, int start) {
+        char c = at(text, start);
+        if (c == '"') return skipString(text, start);
+        if (c != '{' && c != '[') {
+            int i = start;
+            while (i < text.length() && !isDelimiter(text.charAt(i))) i++;
+            if (i == start) throw invalid();
+            return i;
+        }
+
+        int depth = 0;
+        for (int i = start; i < text.length(); i++) {
+            switch (text.charAt(i)) {
+                case '"':
+                    i = skipString(text, i) - 1;
+                    break;
+                case '{': case '[':
+                    depth++;
+                    break;
+                case '}': case ']':
+                    if (--depth == 0) return i + 1;
+                    break;
+            }
+        }
+        throw invalid();
+    }
+
+    static int skipWhitespace(String text, int i) {
+        while (i < text.length() && isWhitespace(text.charAt(i))) i++;
+        return i;
+    }
+
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    static boolean isDelimiter(char c) {
+        return c == ',' || c == ']' || c == '}' || c == ':' || isWhitespace(c);
+    }
+
+    private static char at(String text, int i) {
+        return i < text.length() ? text.charAt(i) : '\0';
+    }
+
+    private static int skipString(String text, int start) {
+        for (int i = start + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') return i + 1;
+            if (c == '\\') i++;
+        }
+        throw invalid();
+    }
+
+    private static String readString(String text, int start) {
+        int end = skipString(text, start) - 1;
+        int escape = text.indexOf('\\', start + 1);
+        if (escape < 0 || escape > end) return text.substring(start + 1, end);
+
+        StringBuilder builder = new StringBuilder(end - start);
+        builder.append(text, start + 1, escape);
+        for (int i = escape; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+
+            c = text.charAt(++i);
+            switch (c) {
+                case '"': case '\\': case '/': builder.append(c); break;
+                case 'b': builder.append('\b'); break;
+                case 'f': builder.append('\f'); break;
+                case 'n': builder.append('\n'); break;
+                case 'r': builder.append('\r'); break;
+                case 't': builder.append('\t'); break;
+                case 'u':
+                    if (i + 4 >= end) throw invalid();
+                    try {
+                        builder.append((char) Integer.parseInt(text.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException e) {
+                        throw invalid();
+                    }
+                    i += 4;
+                    break;
+                default:
+                    throw invalid();
+            }
+        }
+        return builder.toString();
+    }
+
+    static Natives.NativeError invalid() {
+        return new Natives.NativeError("Invalid JSON.");
+    }
+}
@@ -0,0 +1,145 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+
+// Pulls JSON records from a source one at a time. If the input starts with an array, its
+// elements are the records; otherwise each top-level value is, as in newline-delimited JSON.
+// Only the current record's text is held, so memory doesn't grow with the input.
+class JsonReader {
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final TextSource source;
+    private String chunk = "";
+    private int position = 0;
+
+    private boolean started = false;
+    private boolean inArray = false;
+    private boolean isFirst = true;
+    private boolean isDone = false;
+
+    JsonReader(TextSource source) {
+        this.source = source;
+    }
+
+    // Returns the next record, or null once they run out. Since nil marks the end, null
+    // records are skipped.
+    Object next() throws IOException {
+        while (true) {
+            String record = nextRecord();
+            if (record == null) return null;
+            Object value = Json.read(record, 0);
+            if (value != null) return value;
+        }
+    }
+
+    private String nextRecord() throws IOException {
+        if (isDone) return null;
+        if (!skipWhitespace()) {
+            if (inArray) throw Json.invalid();
+            isDone = true;
+            return null;
+        }
+
+        if (!started) {
+            started = true;
+            if (chunk.charAt(position) == '[') {
+                inArray = true;
+                position++;
+                if (!skipWhitespace()) throw Json.invalid();
+            }
+        }
+
+        if (inArray) {
+            char c = chunk.charAt(position);
+            if (c == ']') {
+                isDone = true;
+                return null;
+            }
+            if (!isFirst) {
+                if (c != ',') throw Json.invalid();
+                position++;
+                if (!skipWhitespace()) throw Json.invalid();
+            }
+            isFirst = false;
+        }
+        return capture();
+    }
+
+    // Takes the text of the value at the current position, reading more chunks as needed.
+    private String capture() throws IOException {
+        StringBuilder spill = null;
+        int begin = position;
+        char first = chunk.charAt(position);
+        boolean isComposite = first == '{' || first == '[';
+        int depth = 0;
+        boolean inString = false;
+        boolean isEscaped = false;
+
+        scan:
+        while (true) {
+            if (position == chunk.length()) {
+                if (spill == null) spill = new StringBuilder();
+                spill.append(chunk, begin, position);
+                begin = 0;
+                if (!nextChunk()) {
+                    if (isComposite || inString) throw Json.invalid();
+                    break;
+                }
+                continue;
+            }
+
+            char c = chunk.charAt(position);
+            if (inString) {
+                if (isEscaped) {
+                    isEscaped = false;
+                } else if (c == '\\') {
+                    isEscaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                    if (!isComposite) {
+                        position++;
+                        break;
+                    }
+                }
+            } else if (c == '"') {
+                inString = true;
+            } else if (isComposite) {
+                switch (c) {
+                    case '{': case '[':
+                        depth++;
+                        break;
+                    case '}': case ']':
+                        if (--depth == 0) {
+                            position++;
+                            break scan;
+                        }
+                        break;
+                }
+            } else if (Json.isDelimiter(c)) {
+                break;
+            }
+            position++;
+        }
+
+        if (spill == null) return chunk.substring(begin, position);
+        return spill.append(chunk, begin, position).toString();
+    }
+
+    // Returns false if the input ends first.
+    private boolean skipWhitespace() throws IOException {
+        while (true) {
+            while (position < chunk.length()) {
+                if (!Json.isWhitespace(chunk.charAt(position))) return true;
+                position++;
+            }
+            if (!nextChunk()) return false;
+        }
+    }
+
+    private boolean nextChunk() throws IOException {
+        String next = source.read(CHUNK_SIZE);
+        chunk = next == null ? "" : next;
+        position = 0;
+        return next != null;
+    }
+}
@@ -1,37 +1,121 @@
 package com.craftinginterpreters.lox;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BiFunction;
 
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    // The command line runs one script at a time, reporting to stderr. Embedders use
+    // LoxEngine, which gives each run its own.
+    private static final ErrorReporter errors = ErrorReporter.stderr();
+    private static final Interpreter interpreter = new Interpreter(errors);
+    // Everything the command line runs belongs to one program, the interpreter's own.
+    private static final Program program = interpreter.program();
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        boolean incremental = false;
+        boolean cache = false;
+        String prelude = null;
+        String image = null;
+        String snapshot = null;
+        int argc = 0;
+        try {
+            for (; argc < args.length && args[argc].startsWith("--"); argc++) {
+                switch (args[argc]) {
+                    case "--incremental" -> incremental = true;
+                    case "--cache" -> cache = true;
+                    case "--prelude" -> prelude = args[++argc];
+                    case "--image" -> image = args[++argc];
+                    case "--snapshot" -> snapshot = args[++argc];
+                    default -> usage();
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            usage();
+        }
+
+        // A snapshot saves what a prelude defined, so it takes a prelude and no script.
+        if (args.length - argc > 1 || (incremental && cache) || (prelude != null && image != null)
+                || (snapshot != null && (prelude == null || args.length - argc != 0))) {
+            usage();
+        }
+
+        if (image != null) restore(image);
+        if (prelude != null) runFile(prelude, false, cache);
+        if (snapshot != null) {
+            saveSnapshot(snapshot);
+        } else if (args.length - argc == 1) {
+            runFile(args[argc], incremental, cache);
         } else {
             runPrompt();
         }
     }
 
-    private static void runFile(String path) throws IOException {
+    private static void usage() {
+        System.out.println("Usage: jlox [--incremental | --cache] [--prelude file | --image file] "
+                + "[--snapshot file] [script]");
+        System.exit(64);
+    }
+
+    private static void runFile(String path, boolean incremental, boolean cache) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        String source = new String(bytes, Charset.defaultCharset());
+        try {
+            if (incremental) {
+                runIncremental(source);
+            } else if (cache) {
+                runCached(source);
+            } else {
+                run(source);
+            }
+        } finally {
+            // Keeps what was printed if the script dies of something other than a RuntimeError.
+            interpreter.flush();
+        }
 
         // Indicate an error in the exit code.
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+        if (errors.hadError) System.exit(65);
+        if (errors.hadRuntimeError) System.exit(70);
+    }
+
+    // Defines the globals saved in an image, in place of running the prelude that made them.
+    private static void restore(String path) throws IOException {
+        try (InputStream image = Files.newInputStream(Paths.get(path))) {
+            if (!Snapshot.read(image, interpreter.globals, program)) {
+                System.err.println("Image was saved by a different version of jlox.");
+                System.exit(65);
+            }
+        }
+    }
+
+    // A value that can't be saved, or a file that can't be written, is reported like a
+    // runtime error, and no image is left behind.
+    private static void saveSnapshot(String path) {
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        try {
+            Snapshot.write(image, interpreter.globals);
+        } catch (IllegalArgumentException e) {
+            errors.runtimeError(e.getMessage());
+        } catch (IOException | UncheckedIOException e) {
+            errors.runtimeError("Could not save the snapshot: " + e.getMessage());
+        }
+        if (!errors.hadRuntimeError) {
+            try {
+                Files.write(Paths.get(path), image.toByteArray());
+            } catch (IOException e) {
+                errors.runtimeError("Could not write the snapshot to " + path + ".");
+            }
+        }
+        if (errors.hadRuntimeError) System.exit(70);
     }
 
     private static void runPrompt() throws IOException {
@@ -43,30 +127,87 @@ public class Lox {
             String line = reader.readLine();
             if (line == null) break;
             runLine(line);
-            hadError = false;
+            errors.hadError = false;
         }
     }
 
     private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+        List<Stmt> statements = compile(source, errors, program);
+        if (statements == null) return;
+
+        interpreter.interpret(statements);
+    }
+
+    // Skip the front end entirely if this exact source has been resolved before.
+    private static void runCached(String source) {
+        AstCache cache = new AstCache();
+        List<Stmt> statements = cache.load(source, program);
+        if (statements == null) {
+            statements = compile(source, errors, program);
+            if (statements == null) return;
+            cache.store(source, statements);
+        }
+
+        interpreter.interpret(statements);
+    }
+
+    // Entry point for the programs loxc compiles. link swaps their compiled code into the tree.
+    static void runCompiled(InputStream image, BiFunction<List<Stmt>, Environment, List<Stmt>> link)
+            throws IOException {
+        List<Stmt> statements = AstCache.read(image, program);
+        if (statements == null) {
+            System.err.println("Script was compiled by a different version of jlox.");
+            System.exit(65);
+        }
+
+        interpreter.interpret(link.apply(statements, interpreter.globals));
+        if (errors.hadRuntimeError) System.exit(70);
+    }
+
+    static List<Stmt> compile(String source, ErrorReporter errors, Program program) {
+        List<Stmt> statements;
+        if (source.length() >= ParallelParser.THRESHOLD) {
+            statements = ParallelParser.parse(source, errors);
+        } else {
+            Scanner scanner = new Scanner(source, errors);
+            List<Token> tokens = scanner.scanTokens();
+            Parser parser = new Parser(tokens, errors);
+            statements = parser.parse();
+        }
 
         // Stop if there was a syntax error.
-        if (hadError) return;
+        if (errors.hadError) return null;
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver(errors, program);
         resolver.resolve(statements);
 
         // Stop if there was a resolution error.
-        if (hadError) return;
+        if (errors.hadError) return null;
 
-        interpreter.interpret(statements);
+        return statements;
+    }
+
+    // Parse, resolve and execute one top-level declaration at a time, so output starts
+    // straight away and executed statements don't have to be kept around.
+    private static void runIncremental(String source) {
+        Scanner scanner = new Scanner(source, errors);
+        Parser parser = new Parser(scanner.scanTokens(), errors);
+        Resolver resolver = new Resolver(errors, program);
+
+        while (parser.hasNext()) {
+            Stmt statement = parser.next();
+            if (errors.hadError) return;
+
+            resolver.resolve(statement);
+            if (errors.hadError) return;
+
+            interpreter.interpret(statement);
+            if (errors.hadRuntimeError) return;
+        }
     }
 
     private static void runLine(String source) {
-        Scanner scanner = new Scanner(source);
+        Scanner scanner = new Scanner(source, errors);
 
         List<Token> tokens = scanner.scanTokens();
         List<Token> tokensStmt, tokensExpr;
@@ -103,46 +244,22 @@ public class Lox {
     private static void runStmt(List<Token> tokensStmt) {
         if (tokensStmt.size() <= 1) return;
 
-        Parser parserStmt = new Parser(tokensStmt);
+        Parser parserStmt = new Parser(tokensStmt, errors);
         List<Stmt> statements = parserStmt.parse();
-        if (hadError) return;
+        if (errors.hadError) return;
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver(errors, program);
         resolver.resolve(statements);
-        if (hadError) return;
+        if (errors.hadError) return;
         interpreter.interpret(statements);
     }
 
     private static void runExpr(List<Token> tokensExpr) {
         if (tokensExpr.size() <= 1) return;
 
-        Parser parserExpr = new Parser(tokensExpr);
+        Parser parserExpr = new Parser(tokensExpr, errors);
         Expr expression = parserExpr.parseExpression();
-        if (hadError) return;
+        if (errors.hadError) return;
         interpreter.interpret(expression);
     }
-
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
-
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
-    }
-
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
-        }
-    }
-
-    static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() +
-            "\n[line " + error.token.line + "]"
-        );
-        hadRuntimeError = true;
-    }
-}
\ No newline at end of file
+}
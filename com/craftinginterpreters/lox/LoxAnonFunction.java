@@ -11,6 +11,19 @@ class LoxAnonFunction implements LoxCallable {
         this.closure = closure;
     }
 
+    Environment closure() {
+        return closure;
+    }
+
+    Expr.Function definition() {
+        return definition;
+    }
+
+    // The outer variables the function uses, found by the resolver.
+    Token[] captures() {
+        return definition.captures;
+    }
+
     @Override
     public String toString() {
         return "<anon fn>";
@@ -18,20 +31,28 @@ class LoxAnonFunction implements LoxCallable {
 
     @Override
     public int arity() {
-        return definition.params.size();
+        return definition.params.length;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (definition.isAsync) {
+            LoxTask.share(this, arguments);
+            return LoxTask.start(interpreter, worker -> run(worker, arguments));
+        }
+        return run(interpreter, arguments);
+    }
+
+    private Object run(Interpreter interpreter, List<Object> arguments) {
         Environment environment = new Environment(closure);
-        for (int i = 0; i < definition.params.size(); i++) {
-            environment.define(definition.params.get(i).lexeme, arguments.get(i), true);
+        for (int i = 0; i < definition.params.length; i++) {
+            environment.define(definition.params[i].lexeme, arguments.get(i), true);
         }
 
         try {
             interpreter.executeBlock(definition.body, environment);
         } catch (Return returnValue) {
-            return returnValue;
+            return returnValue.value;
         }
         return null;
     }
@@ -0,0 +1,194 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+// Runs many scripts in one JVM on a pool of worker threads, so each one skips JVM startup and
+// shares the warmed-up JIT. The scripts are every .lox file in a directory, or the paths
+// listed one per line in a manifest. A script reads <script>.in as stdin if there is one.
+// Its output and errors are kept in memory, and written to <name>.out and <name>.err when
+// an output directory is given. The --max-* options limit each script's run.
+public class LoxBatch {
+    private record Result(Path script, int status, long nanos, byte[] output, List<String> errors) {}
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path outputDir = null;
+        Budget.Limits limits = Budget.Limits.NONE;
+        int argc = 0;
+        try {
+            for (; argc < args.length && args[argc].startsWith("--"); argc++) {
+                switch (args[argc]) {
+                    case "--threads" -> threads = Integer.parseInt(args[++argc]);
+                    case "--output" -> outputDir = Paths.get(args[++argc]);
+                    case "--max-steps" -> limits = limits.withSteps(Long.parseLong(args[++argc]));
+                    case "--max-millis" -> limits = limits.withMillis(Long.parseLong(args[++argc]));
+                    case "--max-depth" -> limits = limits.withDepth(Long.parseLong(args[++argc]));
+                    case "--max-instances" -> limits = limits.withInstances(Long.parseLong(args[++argc]));
+                    default -> usage();
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            usage();
+        }
+        if (args.length - argc != 1 || threads < 1) usage();
+
+        List<Path> scripts = scripts(Paths.get(args[argc]));
+        if (outputDir != null) Files.createDirectories(outputDir);
+
+        long start = System.nanoTime();
+        List<Result> results = runAll(scripts, threads, limits);
+        long elapsed = System.nanoTime() - start;
+
+        int worst = 0;
+        for (Result result : results) {
+            System.out.printf("%3d %8.2fms %s%n", result.status, result.nanos / 1e6, result.script);
+            if (outputDir != null) save(outputDir, result);
+            worst = Math.max(worst, result.status);
+        }
+        report(results, elapsed, threads);
+
+        // Exit with the worst status, so 70 wins over 65.
+        if (worst != 0) System.exit(worst);
+    }
+
+    private static void usage() {
+        System.out.println("Usage: loxbatch [--threads n] [--output directory] [--max-steps n] "
+                + "[--max-millis n] [--max-depth n] [--max-instances n] <directory | manifest>");
+        System.exit(64);
+    }
+
+    private static List<Path> scripts(Path source) throws IOException {
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> files = Files.list(source)) {
+                return files.filter(file -> file.toString().endsWith(".lox")).sorted().toList();
+            }
+        }
+
+        Path base = source.toAbsolutePath().getParent();
+        return Files.readAllLines(source).stream()
+                .map(String::strip)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .map(base::resolve)
+                .toList();
+    }
+
+    private static List<Result> runAll(List<Path> scripts, int threads, Budget.Limits limits)
+            throws InterruptedException {
+        // Java 17 has no virtual threads; scripts are CPU bound anyway, so a fixed pool the
+        // size of the machine is the right default. Workers get a task's stack, since a script
+        // recursing as deep as on the main thread would overflow the default one.
+        ExecutorService pool = Executors.newFixedThreadPool(threads,
+                runnable -> new Thread(null, runnable, "lox-batch", LoxTask.STACK_SIZE));
+        LoxEngine engine = new LoxEngine();
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Path script : scripts) {
+                futures.add(pool.submit(() -> run(engine, script, limits)));
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Anything a script throws becomes its result, so one bad script can't stop the batch.
+    private static Result run(LoxEngine engine, Path script, Budget.Limits limits) {
+        long start = System.nanoTime();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            return run(engine, script, limits, start, output);
+        } catch (StackOverflowError error) {
+            return new Result(script, 70, System.nanoTime() - start, output.toByteArray(),
+                    List.of("Stack overflow."));
+        } catch (Throwable error) {
+            return new Result(script, 70, System.nanoTime() - start, output.toByteArray(),
+                    List.of("Internal error: " + error));
+        }
+    }
+
+    private static Result run(LoxEngine engine, Path script, Budget.Limits limits, long start,
+            ByteArrayOutputStream output) {
+
+        String source;
+        try {
+            source = Files.readString(script, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return new Result(script, 66, System.nanoTime() - start, output.toByteArray(),
+                    List.of("Could not read script: " + e.getMessage()));
+        }
+
+        CompiledScript compiled;
+        try {
+            compiled = engine.compile(source);
+        } catch (CompileError error) {
+            return new Result(script, 65, System.nanoTime() - start, output.toByteArray(), error.errors());
+        }
+
+        Path inputFile = Paths.get(script + ".in");
+        ExecutionResult result;
+        try (InputStream input = Files.isRegularFile(inputFile)
+                ? Files.newInputStream(inputFile)
+                : InputStream.nullInputStream()) {
+            result = compiled.execute(new ExecutionContext(input, output).limit(limits));
+        } catch (IOException e) {
+            return new Result(script, 66, System.nanoTime() - start, output.toByteArray(),
+                    List.of("Could not read input: " + e.getMessage()));
+        }
+        return new Result(script, result.status(), System.nanoTime() - start,
+                output.toByteArray(), result.errors());
+    }
+
+    private static void save(Path outputDir, Result result) throws IOException {
+        String name = result.script.getFileName().toString().replaceFirst("\\.lox$", "");
+        Files.write(outputDir.resolve(name + ".out"), result.output);
+        if (!result.errors.isEmpty()) {
+            Files.write(outputDir.resolve(name + ".err"), result.errors, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void report(List<Result> results, long elapsed, int threads) {
+        int failed = 0;
+        long[] latencies = new long[results.size()];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = results.get(i).nanos;
+            if (results.get(i).status != 0) failed++;
+        }
+        Arrays.sort(latencies);
+
+        System.out.printf("%d scripts, %d failed, %d threads, %.2fs, %.1f scripts/s%n",
+                results.size(), failed, threads, elapsed / 1e9, results.size() / (elapsed / 1e9));
+        if (latencies.length == 0) return;
+        System.out.printf("latency p50 %.2fms  p90 %.2fms  p99 %.2fms  max %.2fms%n",
+                percentile(latencies, 50), percentile(latencies, 90),
+                percentile(latencies, 99), latencies[latencies.length - 1] / 1e6);
+    }
+
+    // Nearest rank, in milliseconds.
+    static double percentile(long[] sorted, int percent) {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1] / 1e6;
+    }
+}
@@ -0,0 +1,70 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// A bounded queue for passing values between tasks. Sending blocks while it's full and
+// receiving blocks while it's empty. Once closed and drained, receive returns nil; since nil
+// marks the end, it can't be sent. A value sent happens-before it is received.
+class LoxChannel {
+    private final Object[] buffer;
+    private int head = 0;
+    private int count = 0;
+    private boolean isClosed = false;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    LoxChannel(int capacity) {
+        buffer = new Object[capacity];
+    }
+
+    void send(Object value) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == buffer.length && !isClosed) notFull.await();
+            if (isClosed) throw new Natives.NativeError("Can't send on a closed channel.");
+
+            buffer[(head + count) % buffer.length] = value;
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns null once the channel is closed and empty.
+    Object receive() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0 && !isClosed) notEmpty.await();
+            if (count == 0) return null;
+
+            Object value = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            count--;
+            notFull.signal();
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            isClosed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
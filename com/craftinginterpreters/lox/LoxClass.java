@@ -15,6 +15,11 @@ class LoxClass extends LoxInstance implements LoxCallable {
         this.methods = methods;
     }
 
+    // The class's own methods, not its superclass's.
+    Map<String, LoxFunction> methods() {
+        return methods;
+    }
+
     LoxFunction findMethod(String name) {
         if (methods.containsKey(name)) {
             return methods.get(name);
@@ -47,6 +52,7 @@ class LoxClass extends LoxInstance implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        interpreter.allocate();
         LoxInstance instance = new LoxInstance(this);
         LoxFunction initializer = findMethod("init");
         if (initializer != null) {
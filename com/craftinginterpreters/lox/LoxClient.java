@@ -0,0 +1,188 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Sends a script to a LoxServer: a .lox file that exists is sent as source, anything else is
+// taken as the name of one of the server's scripts. With --requests it becomes a load
+// generator instead, sending the script that many times over --clients connections at once
+// and reporting the throughput and latency.
+public class LoxClient {
+    private static final int DEFAULT_PORT = 7070;
+
+    private final SocketChannel channel;
+    private final InputStream in;
+    private final OutputStream out;
+
+    private LoxClient(SocketAddress address) throws IOException {
+        channel = address instanceof UnixDomainSocketAddress
+                ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                : SocketChannel.open();
+        channel.connect(address);
+        if (address instanceof InetSocketAddress) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+        in = new BufferedInputStream(Channels.newInputStream(channel));
+        out = new BufferedOutputStream(Channels.newOutputStream(channel));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = DEFAULT_PORT;
+        Path socket = null;
+        Path inputFile = null;
+        int clients = 1;
+        int requests = 0;
+        int argc = 0;
+        try {
+            for (; argc < args.length && args[argc].startsWith("--"); argc++) {
+                switch (args[argc]) {
+                    case "--port" -> port = Integer.parseInt(args[++argc]);
+                    case "--socket" -> socket = Paths.get(args[++argc]);
+                    case "--input" -> inputFile = Paths.get(args[++argc]);
+                    case "--clients" -> clients = Integer.parseInt(args[++argc]);
+                    case "--requests" -> requests = Integer.parseInt(args[++argc]);
+                    default -> usage();
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            usage();
+        }
+        if (args.length - argc != 1 || clients < 1 || requests < 0) usage();
+
+        SocketAddress address = socket != null
+                ? UnixDomainSocketAddress.of(socket)
+                : new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        byte[] input = inputFile == null ? new byte[0] : Files.readAllBytes(inputFile);
+        byte[] request = request(args[argc], input);
+
+        if (requests == 0) {
+            int status;
+            try {
+                status = new LoxClient(address).send(request, System.out);
+            } catch (IOException e) {
+                System.err.println("Could not reach the server at " + address + ": " + e.getMessage());
+                status = 69;
+            }
+            System.out.flush();
+            System.exit(status);
+        }
+        load(address, request, clients, requests);
+    }
+
+    private static void usage() {
+        System.out.println("Usage: loxclient [--port n | --socket path] [--input file] "
+                + "[--clients n] [--requests n] <script.lox | name>");
+        System.exit(64);
+    }
+
+    // The whole request, header and all, so the load generator can send it over and over.
+    private static byte[] request(String script, byte[] input) throws IOException {
+        Path path = Paths.get(script);
+        byte[] header;
+        byte[] source = new byte[0];
+        if (script.endsWith(".lox") && Files.isRegularFile(path)) {
+            source = Files.readAllBytes(path);
+            header = ("run " + source.length + " " + input.length + "\n").getBytes(StandardCharsets.UTF_8);
+        } else {
+            header = ("call " + script + " " + input.length + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        byte[] request = Arrays.copyOf(header, header.length + source.length + input.length);
+        System.arraycopy(source, 0, request, header.length, source.length);
+        System.arraycopy(input, 0, request, header.length + source.length, input.length);
+        return request;
+    }
+
+    // Writes the script's output to output as it arrives and its errors to stderr. Returns
+    // the status.
+    private int send(byte[] request, OutputStream output) throws IOException {
+        out.write(request);
+        out.flush();
+        while (true) {
+            String header = LoxServer.readHeader(in);
+            if (header == null) throw new EOFException();
+            String[] parts = header.split(" ");
+            if (parts[0].equals("out")) {
+                output.write(LoxServer.readBytes(in, parts[1]));
+                output.flush();
+            } else if (parts[0].equals("done")) {
+                byte[] errors = LoxServer.readBytes(in, parts[2]);
+                if (errors.length > 0) System.err.println(new String(errors, StandardCharsets.UTF_8));
+                return Integer.parseInt(parts[1]);
+            } else {
+                throw new IOException("Unexpected reply '" + header + "'.");
+            }
+        }
+    }
+
+    private static void load(SocketAddress address, byte[] request, int clients, int requests)
+            throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long[] latencies = new long[requests];
+        int[] statuses = new int[requests];
+        long start = System.nanoTime();
+        try {
+            // Client c sends requests c, c + clients, c + 2 * clients, and so on.
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                int first = c;
+                int step = clients;
+                futures.add(pool.submit(() -> {
+                    LoxClient client = new LoxClient(address);
+                    try (client.channel) {
+                        for (int i = first; i < requests; i += step) {
+                            long begin = System.nanoTime();
+                            statuses[i] = client.send(request, OutputStream.nullOutputStream());
+                            latencies[i] = System.nanoTime() - begin;
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int failed = 0;
+        for (int status : statuses) {
+            if (status != 0) failed++;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%d requests, %d failed, %d clients, %.2fs, %.1f requests/s%n",
+                requests, failed, clients, elapsed / 1e9, requests / (elapsed / 1e9));
+        System.out.printf("latency p50 %.2fms  p90 %.2fms  p99 %.2fms  max %.2fms%n",
+                LoxBatch.percentile(latencies, 50), LoxBatch.percentile(latencies, 90),
+                LoxBatch.percentile(latencies, 99), latencies[latencies.length - 1] / 1e6);
+    }
+}
@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The way to run Lox from other Java code. A compiled script can be executed any number of
+// times, from any number of threads at once; each execution gets its own globals, input,
+// output and errors.
+public final class LoxEngine {
+    public CompiledScript compile(String source) throws CompileError {
+        List<String> messages = new ArrayList<>();
+        Program program = new Program();
+        List<Stmt> statements = Lox.compile(source, new ErrorReporter(messages::add), program);
+        if (statements == null) throw new CompileError(messages);
+        return new CompiledScript(statements, program);
+    }
+}
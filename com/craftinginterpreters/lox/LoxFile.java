@@ -0,0 +1,226 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A file opened by a script. Reading maps the file a window at a time and finds line ends in
+// the mapping itself, so bytes are only copied once a line becomes a string. Writing goes
+// through an Output buffer. Text is UTF-8 either way.
+class LoxFile implements TextSource {
+    private static final int WINDOW = 1 << 26;
+    private static final int WRITE_BUFFER = 1 << 16;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long NEWLINES = ONES * '\n';
+    private static final int MAX_SCRATCH = 1 << 16;
+
+    final String path;
+    private final FileChannel channel;
+    private boolean isOpen = true;
+
+    // Reading.
+    private MappedByteBuffer window = null;
+    private long windowStart = 0;
+    private long position = 0;
+    // The size as of the last check, so reading a line doesn't need a system call.
+    private long knownSize = 0;
+    // Kept between reads for lines and blocks. Anything larger, like readAll of a big file,
+    // gets its own array, so the file isn't held in memory twice after the read.
+    private byte[] scratch = new byte[256];
+
+    // Writing, or null for a file opened to read.
+    private final Output output;
+
+    private LoxFile(String path, FileChannel channel, boolean isWritable) {
+        this.path = path;
+        this.channel = channel;
+        this.output = isWritable
+                ? new Output(channel, WRITE_BUFFER, StandardCharsets.UTF_8)
+                : null;
+    }
+
+    // Mode is "r" to read, "w" to write from scratch or "a" to append. Problems with the
+    // arguments or the file's state are NativeErrors; IOExceptions come from the system.
+    static LoxFile open(String path, String mode) throws IOException {
+        switch (mode) {
+            case "r":
+                return new LoxFile(path, FileChannel.open(Path.of(path),
+                        StandardOpenOption.READ), false);
+            case "w":
+                return new LoxFile(path, FileChannel.open(Path.of(path),
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING), true);
+            case "a":
+                return new LoxFile(path, FileChannel.open(Path.of(path),
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND), true);
+            default:
+                throw new Natives.NativeError("File mode must be \"r\", \"w\" or \"a\".");
+        }
+    }
+
+    long size() throws IOException {
+        checkOpen();
+        if (output != null) flush();
+        return channel.size();
+    }
+
+    // Returns the next line without its terminator, or null at the end of the file.
+    @Override
+    public String readLine() throws IOException {
+        checkReadable();
+        if (position >= knownSize) knownSize = channel.size();
+        long size = knownSize;
+        if (position >= size) return null;
+
+        long scan = position;
+        long lineEnd = -1;
+        while (scan < size) {
+            if (window == null || position < windowStart
+                    || scan >= windowStart + window.limit()) {
+                // Map from the start of the line, with room for the part already scanned.
+                map(position, Math.max(WINDOW, 2 * (scan - position)), size);
+            }
+            int end = findNewline((int) (scan - windowStart), window.limit());
+            scan = windowStart + end;
+            if (end < window.limit()) {
+                lineEnd = scan;
+                break;
+            }
+        }
+
+        long next = lineEnd < 0 ? size : lineEnd + 1;
+        if (lineEnd < 0) lineEnd = size;
+        if (lineEnd > position && window.get((int) (lineEnd - 1 - windowStart)) == '\r') {
+            lineEnd--;
+        }
+        String line = decode((int) (position - windowStart), (int) (lineEnd - windowStart));
+        position = next;
+        return line;
+    }
+
+    // Returns up to count bytes, cut back so no character is split, or null at the end.
+    @Override
+    public String read(int count) throws IOException {
+        checkReadable();
+        if (position >= knownSize) knownSize = channel.size();
+        long size = knownSize;
+        if (position >= size) return null;
+
+        long blockEnd = Math.min(position + count, size);
+        // Unless the block runs to the end, the byte after it is needed too.
+        long needed = blockEnd < size ? blockEnd + 1 : blockEnd;
+        if (window == null || position < windowStart
+                || needed > windowStart + window.limit()) {
+            map(position, Math.max(WINDOW, needed - position), size);
+        }
+
+        int from = (int) (position - windowStart);
+        int to = (int) (blockEnd - windowStart);
+        if (blockEnd < size) {
+            // Back up over continuation bytes to the start of the last character.
+            int lead = to;
+            while (lead > from && (window.get(lead) & 0xC0) == 0x80) lead--;
+            if (lead > from) to = lead;
+        }
+        String block = decode(from, to);
+        position = windowStart + to;
+        return block;
+    }
+
+    // Returns the rest of the file, or null at the end.
+    String readAll() throws IOException {
+        checkReadable();
+        long size = knownSize = channel.size();
+        if (position >= size) return null;
+        if (size - position > Integer.MAX_VALUE - 8) {
+            throw new Natives.NativeError("File is too large to read at once.");
+        }
+
+        map(position, size - position, size);
+        String text = decode(0, window.limit());
+        position = size;
+        return text;
+    }
+
+    void write(String text) throws IOException {
+        checkOpen();
+        if (output == null) throw new Natives.NativeError("File is not open for writing.");
+        output.write(text);
+        checkError();
+    }
+
+    void flush() throws IOException {
+        if (output == null || !isOpen) return;
+        output.flush();
+        checkError();
+    }
+
+    void close() throws IOException {
+        if (!isOpen) return;
+        try {
+            flush();
+        } finally {
+            isOpen = false;
+            window = null;
+            channel.close();
+        }
+    }
+
+    private void map(long start, long length, long size) throws IOException {
+        length = Math.min(Math.min(length, size - start), Integer.MAX_VALUE - 8);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+        windowStart = start;
+    }
+
+    // Looks at eight bytes at a time: a byte of the word is zero where it held a newline, and
+    // the subtraction trick sets the high bit of the lowest such byte.
+    private int findNewline(int from, int limit) {
+        int i = from;
+        for (; i + 8 <= limit; i += 8) {
+            long word = window.getLong(i) ^ NEWLINES;
+            long found = (word - ONES) & ~word & HIGHS;
+            if (found != 0) return i + (Long.numberOfTrailingZeros(found) >>> 3);
+        }
+        for (; i < limit; i++) {
+            if (window.get(i) == '\n') return i;
+        }
+        return limit;
+    }
+
+    private String decode(int from, int to) {
+        int length = to - from;
+        byte[] bytes = scratch;
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+            if (bytes.length <= MAX_SCRATCH) scratch = bytes;
+        }
+        window.get(from, bytes, 0, length);
+        return Input.decode(bytes, 0, length);
+    }
+
+    private void checkOpen() {
+        if (!isOpen) throw new Natives.NativeError("File is closed.");
+    }
+
+    private void checkReadable() {
+        checkOpen();
+        if (output != null) throw new Natives.NativeError("File is not open for reading.");
+    }
+
+    private void checkError() throws IOException {
+        if (output.error() != null) throw output.error();
+    }
+
+    @Override
+    public String toString() {
+        return "<file " + path + ">";
+    }
+}
@@ -30,6 +30,27 @@ class LoxFunction implements LoxCallable {
         return new LoxFunction(declaration, environment, isInitializer, methodType);
     }
 
+    Environment closure() {
+        return closure;
+    }
+
+    Stmt.Function declaration() {
+        return declaration;
+    }
+
+    boolean isInitializer() {
+        return isInitializer;
+    }
+
+    MethodType methodType() {
+        return methodType;
+    }
+
+    // The outer variables the function uses, found by the resolver.
+    Token[] captures() {
+        return declaration.captures;
+    }
+
     @Override
     public String toString() {
         return "<fn " + declaration.name.lexeme + ">";
@@ -37,14 +58,23 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public int arity() {
-        return declaration.params.size();
+        return declaration.params.length;
     }
 
+    // An async function runs on a task, and the call returns the task for 'await'.
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (declaration.isAsync) {
+            LoxTask.share(this, arguments);
+            return LoxTask.start(interpreter, worker -> run(worker, arguments));
+        }
+        return run(interpreter, arguments);
+    }
+
+    private Object run(Interpreter interpreter, List<Object> arguments) {
         Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i), true);
+        for (int i = 0; i < declaration.params.length; i++) {
+            environment.define(declaration.params[i].lexeme, arguments.get(i), true);
         }
 
         try {
@@ -1,18 +1,55 @@
 package com.craftinginterpreters.lox;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 class LoxInstance {
+    // A field of a shared instance. Reads and writes are volatile, and updates that depend
+    // on the old value are compare-and-set loops, so changing a field takes no lock. Adding
+    // one does: putIfAbsent on the ConcurrentHashMap locks the bin the name lands in.
+    private static final class Slot {
+        volatile Object value;
+
+        Slot(Object value) {
+            this.value = value;
+        }
+    }
+
+    // A field of a frozen instance, which an interpreter can keep instead of looking it up.
+    record FrozenField(LoxInstance instance, Object value) {}
+
+    private static final VarHandle SLOT_VALUE;
+    static {
+        try {
+            SLOT_VALUE = MethodHandles.lookup().findVarHandle(Slot.class, "value", Object.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private Map<String, Object> fields = new HashMap<>();
+    // Set by share(), after which the fields live here instead. Adding a field is a
+    // putIfAbsent, so two threads adding the same field end up with one slot.
+    private Map<String, Slot> slots = null;
+    // Volatile, since a shared instance may be frozen while other threads use it. They see
+    // it frozen from their next check on; a write that already passed its check still lands.
+    private volatile boolean isFrozen = false;
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
     }
 
     Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
+        if (slots != null) {
+            Slot slot = slots.get(name.lexeme);
+            if (slot != null) return slot.value;
+        } else if (fields.containsKey(name.lexeme)) {
             return fields.get(name.lexeme);
         }
 
@@ -26,7 +63,120 @@ class LoxInstance {
     }
 
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        if (isFrozen) throw new RuntimeError(name, "Can't modify a frozen instance.");
+        if (slots == null) {
+            fields.put(name.lexeme, value);
+            return;
+        }
+
+        Slot slot = slots.get(name.lexeme);
+        if (slot == null) slot = slots.putIfAbsent(name.lexeme, new Slot(value));
+        if (slot != null) slot.value = value;
+    }
+
+    // Makes the fields safe to use from several threads at once. Like Environment.share(),
+    // it must be called by the thread that owns the instance, before others can see it.
+    void share() {
+        if (slots != null) return;
+        Map<String, Slot> shared = new ConcurrentHashMap<>();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            shared.put(field.getKey(), new Slot(field.getValue()));
+        }
+        slots = shared;
+        fields = null;
+    }
+
+    boolean isShared() {
+        return slots != null;
+    }
+
+    // Returns false if it was already frozen. The field values are frozen by the caller.
+    boolean freeze() {
+        if (isFrozen) return false;
+        isFrozen = true;
+        return true;
+    }
+
+    boolean isFrozen() {
+        return isFrozen;
+    }
+
+    List<Object> fieldValues() {
+        List<Object> values = new ArrayList<>();
+        if (slots == null) {
+            values.addAll(fields.values());
+        } else {
+            for (Slot slot : slots.values()) values.add(slot.value);
+        }
+        return values;
+    }
+
+    // The fields by name, copied out.
+    Map<String, Object> fields() {
+        Map<String, Object> copy = new HashMap<>();
+        if (slots == null) {
+            copy.putAll(fields);
+        } else {
+            for (Map.Entry<String, Slot> slot : slots.entrySet()) {
+                copy.put(slot.getKey(), slot.getValue().value);
+            }
+        }
+        return copy;
+    }
+
+    // Returns null unless the instance is frozen and has the field. A getter stored in a
+    // field is called on every read, so it isn't returned either.
+    FrozenField frozenField(String name) {
+        if (!isFrozen) return null;
+        Object value;
+        if (slots != null) {
+            Slot slot = slots.get(name);
+            if (slot == null) return null;
+            value = slot.value;
+        } else {
+            if (!fields.containsKey(name)) return null;
+            value = fields.get(name);
+        }
+        if (value instanceof LoxFunction && ((LoxFunction) value).isGetter()) return null;
+        return new FrozenField(this, value);
+    }
+
+    // Sets the field to value if it is equal to expected, as '==' would say; a missing field
+    // counts as nil. Returns whether it was set. Only for shared instances.
+    boolean compareAndSet(String name, Object expected, Object value) {
+        checkMutable();
+        while (true) {
+            Slot slot = slots.get(name);
+            if (slot == null) {
+                if (expected != null) return false;
+                if (slots.putIfAbsent(name, new Slot(value)) == null) return true;
+                continue;
+            }
+
+            Object current = slot.value;
+            if (!Interpreter.isEqual(current, expected)) return false;
+            if (SLOT_VALUE.compareAndSet(slot, current, value)) return true;
+        }
+    }
+
+    // Adds delta to a number field and returns its old value. Only for shared instances.
+    double getAndAdd(String name, double delta) {
+        checkMutable();
+        Slot slot = slots.get(name);
+        if (slot == null) throw new Natives.NativeError("Undefined property '" + name + "'.");
+        while (true) {
+            Object current = slot.value;
+            if (!(current instanceof Double)) {
+                throw new Natives.NativeError("Property '" + name + "' must be a number.");
+            }
+            if (SLOT_VALUE.compareAndSet(slot, current, (Object) ((double) current + delta))) {
+                return (double) current;
+            }
+        }
+    }
+
+    private void checkMutable() {
+        if (isFrozen) throw new Natives.NativeError("Can't modify a frozen instance.");
     }
 
     @Override
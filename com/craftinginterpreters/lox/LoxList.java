@@ -0,0 +1,122 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// A growable list. While it only holds numbers they are stored unboxed in a double[];
+// the first non-number switches it over to an Object[] for good.
+class LoxList {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private double[] numbers = new double[INITIAL_CAPACITY];
+    private Object[] objects = null;
+    private int size = 0;
+    private boolean isFrozen = false;
+
+    int size() {
+        return size;
+    }
+
+    // Until the first non-number arrives.
+    boolean holdsOnlyNumbers() {
+        return objects == null;
+    }
+
+    Object get(int index) {
+        if (objects != null) return objects[index];
+        return numbers[index];
+    }
+
+    void set(int index, Object value) {
+        checkMutable();
+        if (objects == null) {
+            if (value instanceof Double) {
+                numbers[index] = (double) value;
+                return;
+            }
+            generalize();
+        }
+        objects[index] = value;
+    }
+
+    void push(Object value) {
+        checkMutable();
+        if (objects == null) {
+            if (value instanceof Double) {
+                if (size == numbers.length) numbers = Arrays.copyOf(numbers, grow(size));
+                numbers[size++] = (double) value;
+                return;
+            }
+            generalize();
+        }
+        if (size == objects.length) objects = Arrays.copyOf(objects, grow(size));
+        objects[size++] = value;
+    }
+
+    Object pop() {
+        checkMutable();
+        Object value = get(--size);
+        if (objects != null) objects[size] = null;
+        return value;
+    }
+
+    // Sorts numbers or strings; returns false if the list holds anything else.
+    boolean sort() {
+        checkMutable();
+        if (objects == null) {
+            Arrays.sort(numbers, 0, size);
+            return true;
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (!(objects[i] instanceof String)) return false;
+        }
+        Arrays.sort(objects, 0, size);
+        return true;
+    }
+
+    // Returns false if it was already frozen. The elements are frozen by the caller.
+    boolean freeze() {
+        if (isFrozen) return false;
+        isFrozen = true;
+        return true;
+    }
+
+    boolean isFrozen() {
+        return isFrozen;
+    }
+
+    private void checkMutable() {
+        if (isFrozen) throw new Natives.NativeError("Can't modify a frozen list.");
+    }
+
+    private void generalize() {
+        objects = new Object[numbers.length];
+        for (int i = 0; i < size; i++) {
+            objects[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    private static int grow(int capacity) {
+        return capacity + (capacity >> 1) + 1;
+    }
+
+    // Appends the element as print would show it, without boxing numbers.
+    void appendTo(StringBuilder builder, int index) {
+        if (objects == null) {
+            Natives.appendNumber(builder, numbers[index]);
+        } else {
+            builder.append(Natives.stringify(objects[index]));
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) builder.append(", ");
+            appendTo(builder, i);
+        }
+        return builder.append("]").toString();
+    }
+}
@@ -0,0 +1,245 @@
+package com.craftinginterpreters.lox;
+
+// A hash map using open addressing with linear probing. Number keys live in their own table
+// as raw bits, so they are never boxed; every other key goes in a table of objects. Keys
+// match when the interpreter's '==' would say they are equal.
+class LoxMap {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    // Number keys.
+    private long[] numberKeys = new long[INITIAL_CAPACITY];
+    private Object[] numberValues = new Object[INITIAL_CAPACITY];
+    private boolean[] numberUsed = new boolean[INITIAL_CAPACITY];
+    private int numberShift = shiftFor(INITIAL_CAPACITY);
+    private int numberCount = 0;
+
+    // Strings and every other key. nil is stored as NIL so null can mean an empty slot.
+    private static final Object NIL = new Object();
+    private Object[] objectKeys = new Object[INITIAL_CAPACITY];
+    private Object[] objectValues = new Object[INITIAL_CAPACITY];
+    // Cached hash codes, checked before calling equals().
+    private int[] objectHashes = new int[INITIAL_CAPACITY];
+    private int objectShift = shiftFor(INITIAL_CAPACITY);
+    private int objectCount = 0;
+
+    private boolean isFrozen = false;
+
+    int size() {
+        return numberCount + objectCount;
+    }
+
+    Object get(Object key) {
+        if (key instanceof Double) {
+            int slot = findNumber(Double.doubleToLongBits((double) key));
+            return slot < 0 ? null : numberValues[slot];
+        }
+        int slot = findObject(wrap(key));
+        return slot < 0 ? null : objectValues[slot];
+    }
+
+    boolean has(Object key) {
+        if (key instanceof Double) return findNumber(Double.doubleToLongBits((double) key)) >= 0;
+        return findObject(wrap(key)) >= 0;
+    }
+
+    void put(Object key, Object value) {
+        checkMutable();
+        if (key instanceof Double) {
+            putNumber(Double.doubleToLongBits((double) key), value);
+        } else {
+            putObject(wrap(key), value);
+        }
+    }
+
+    // Returns the removed value, or nil if the key wasn't there.
+    Object remove(Object key) {
+        checkMutable();
+        if (key instanceof Double) {
+            int slot = findNumber(Double.doubleToLongBits((double) key));
+            if (slot < 0) return null;
+            Object value = numberValues[slot];
+            deleteNumber(slot);
+            return value;
+        }
+
+        int slot = findObject(wrap(key));
+        if (slot < 0) return null;
+        Object value = objectValues[slot];
+        deleteObject(slot);
+        return value;
+    }
+
+    LoxList keys() {
+        LoxList keys = new LoxList();
+        for (int i = 0; i < numberKeys.length; i++) {
+            if (numberUsed[i]) keys.push(Double.longBitsToDouble(numberKeys[i]));
+        }
+        for (Object key : objectKeys) {
+            if (key != null) keys.push(key == NIL ? null : key);
+        }
+        return keys;
+    }
+
+    // Returns false if it was already frozen. The keys and values are frozen by the caller.
+    boolean freeze() {
+        if (isFrozen) return false;
+        isFrozen = true;
+        return true;
+    }
+
+    boolean isFrozen() {
+        return isFrozen;
+    }
+
+    private void checkMutable() {
+        if (isFrozen) throw new Natives.NativeError("Can't modify a frozen map.");
+    }
+
+    private static Object wrap(Object key) {
+        return key == null ? NIL : key;
+    }
+
+    // Fibonacci hashing: multiply, then take the top bits, which depend on every bit of the key.
+    private static int shiftFor(int capacity) {
+        return 64 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    private int home(long bits) {
+        return (int) ((bits * GOLDEN) >>> numberShift);
+    }
+
+    private int home(int hash) {
+        return (int) ((hash * GOLDEN) >>> objectShift);
+    }
+
+    private int findNumber(long bits) {
+        int mask = numberKeys.length - 1;
+        for (int i = home(bits); numberUsed[i]; i = (i + 1) & mask) {
+            if (numberKeys[i] == bits) return i;
+        }
+        return -1;
+    }
+
+    private int findObject(Object key) {
+        int hash = key.hashCode();
+        int mask = objectKeys.length - 1;
+        for (int i = home(hash); objectKeys[i] != null; i = (i + 1) & mask) {
+            if (objectHashes[i] == hash && objectKeys[i].equals(key)) return i;
+        }
+        return -1;
+    }
+
+    private void putNumber(long bits, Object value) {
+        int mask = numberKeys.length - 1;
+        int i = home(bits);
+        for (; numberUsed[i]; i = (i + 1) & mask) {
+            if (numberKeys[i] == bits) {
+                numberValues[i] = value;
+                return;
+            }
+        }
+
+        numberKeys[i] = bits;
+        numberValues[i] = value;
+        numberUsed[i] = true;
+        // Keep the load factor under 3/4.
+        if (++numberCount * 4 > numberKeys.length * 3) resizeNumbers();
+    }
+
+    private void putObject(Object key, Object value) {
+        putObject(key, key.hashCode(), value);
+    }
+
+    private void putObject(Object key, int hash, Object value) {
+        int mask = objectKeys.length - 1;
+        int i = home(hash);
+        for (; objectKeys[i] != null; i = (i + 1) & mask) {
+            if (objectHashes[i] == hash && objectKeys[i].equals(key)) {
+                objectValues[i] = value;
+                return;
+            }
+        }
+
+        objectKeys[i] = key;
+        objectValues[i] = value;
+        objectHashes[i] = hash;
+        if (++objectCount * 4 > objectKeys.length * 3) resizeObjects();
+    }
+
+    // Deleting shifts later entries of the probe sequence back, so no tombstones are needed.
+    private void deleteNumber(int slot) {
+        int mask = numberKeys.length - 1;
+        int hole = slot;
+        for (int i = (slot + 1) & mask; numberUsed[i]; i = (i + 1) & mask) {
+            int home = home(numberKeys[i]);
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                numberKeys[hole] = numberKeys[i];
+                numberValues[hole] = numberValues[i];
+                hole = i;
+            }
+        }
+        numberUsed[hole] = false;
+        numberValues[hole] = null;
+        numberCount--;
+    }
+
+    private void deleteObject(int slot) {
+        int mask = objectKeys.length - 1;
+        int hole = slot;
+        for (int i = (slot + 1) & mask; objectKeys[i] != null; i = (i + 1) & mask) {
+            int home = home(objectHashes[i]);
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                objectKeys[hole] = objectKeys[i];
+                objectValues[hole] = objectValues[i];
+                objectHashes[hole] = objectHashes[i];
+                hole = i;
+            }
+        }
+        objectKeys[hole] = null;
+        objectValues[hole] = null;
+        objectCount--;
+    }
+
+    private void resizeNumbers() {
+        long[] keys = numberKeys;
+        Object[] values = numberValues;
+        boolean[] used = numberUsed;
+
+        numberKeys = new long[keys.length * 2];
+        numberValues = new Object[keys.length * 2];
+        numberUsed = new boolean[keys.length * 2];
+        numberShift = shiftFor(keys.length * 2);
+        numberCount = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) putNumber(keys[i], values[i]);
+        }
+    }
+
+    private void resizeObjects() {
+        Object[] keys = objectKeys;
+        Object[] values = objectValues;
+        int[] hashes = objectHashes;
+
+        objectKeys = new Object[keys.length * 2];
+        objectValues = new Object[keys.length * 2];
+        objectHashes = new int[keys.length * 2];
+        objectShift = shiftFor(keys.length * 2);
+        objectCount = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) putObject(keys[i], hashes[i], values[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        LoxList keys = keys();
+        for (int i = 0; i < keys.size(); i++) {
+            if (i > 0) builder.append(", ");
+            Object key = keys.get(i);
+            builder.append(Natives.stringify(key)).append(": ").append(Natives.stringify(get(key)));
+        }
+        return builder.append("}").toString();
+    }
+}
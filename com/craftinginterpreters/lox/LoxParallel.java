@@ -0,0 +1,225 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Data-parallel map, filter and reduce over lists. The elements are split in halves until the
+// pieces are small, and the pieces run on a fork-join pool, each with its own interpreter.
+// The function may be running on several threads at once, so it can only use outer variables
+// that can't be reassigned: vals, functions and classes.
+class LoxParallel {
+    private static final int PARALLELISM =
+            Integer.getInteger("jlox.parallelism", Runtime.getRuntime().availableProcessors());
+    // About this many pieces per thread, so a slow piece doesn't hold the others up.
+    private static final int PIECES_PER_THREAD = 8;
+
+    private static final ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+
+    // One parallel call: what to do with a piece of the elements, and how to combine the
+    // results of two neighbouring pieces.
+    private abstract static class Job {
+        final Interpreter parent;
+        final LoxCallable function;
+        final Object[] elements;
+        final int grain;
+
+        Job(Interpreter parent, LoxCallable function, Object[] elements) {
+            this.parent = parent;
+            this.function = function;
+            this.elements = elements;
+            this.grain = Math.max(1, elements.length / (PARALLELISM * PIECES_PER_THREAD));
+        }
+
+        abstract Object piece(Interpreter worker, int from, int to);
+
+        Object combine(Interpreter worker, Object left, Object right) {
+            return null;
+        }
+    }
+
+    private static final class Split extends RecursiveTask<Object> {
+        private final Job job;
+        private final int from;
+        private final int to;
+
+        Split(Job job, int from, int to) {
+            this.job = job;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Object compute() {
+            if (to - from <= job.grain) return job.piece(job.parent.spawn(), from, to);
+
+            int middle = (from + to) >>> 1;
+            Split right = new Split(job, middle, to);
+            right.fork();
+            Object left = new Split(job, from, middle).compute();
+            return job.combine(job.parent.spawn(), left, right.join());
+        }
+    }
+
+    // Returns a list of the results of calling function on each element, in order.
+    static LoxList map(Interpreter interpreter, LoxList list, LoxCallable function) {
+        checkFunction(function, 1);
+        Object[] results = new Object[list.size()];
+        run(new Job(interpreter, function, elements(list)) {
+            @Override
+            Object piece(Interpreter worker, int from, int to) {
+                for (int i = from; i < to; i++) results[i] = call(worker, function, elements[i]);
+                return null;
+            }
+        });
+
+        LoxList mapped = new LoxList();
+        for (Object result : results) mapped.push(result);
+        return mapped;
+    }
+
+    // Returns a list of the elements for which function returns a truthy value, in order.
+    static LoxList filter(Interpreter interpreter, LoxList list, LoxCallable function) {
+        checkFunction(function, 1);
+        Object[] elements = elements(list);
+        boolean[] keep = new boolean[elements.length];
+        run(new Job(interpreter, function, elements) {
+            @Override
+            Object piece(Interpreter worker, int from, int to) {
+                for (int i = from; i < to; i++) {
+                    keep[i] = Interpreter.isTruthy(call(worker, function, elements[i]));
+                }
+                return null;
+            }
+        });
+
+        LoxList filtered = new LoxList();
+        for (int i = 0; i < elements.length; i++) {
+            if (keep[i]) filtered.push(elements[i]);
+        }
+        return filtered;
+    }
+
+    // Folds the elements with function, starting each piece from initial. The pieces are
+    // folded in any grouping, so function must be associative and initial must leave any
+    // value unchanged, like 0 for addition.
+    static Object reduce(Interpreter interpreter, LoxList list, LoxCallable function, Object initial) {
+        checkFunction(function, 2);
+        if (list.size() == 0) return initial;
+        return run(new Job(interpreter, function, elements(list)) {
+            @Override
+            Object piece(Interpreter worker, int from, int to) {
+                Object result = initial;
+                for (int i = from; i < to; i++) result = call(worker, function, result, elements[i]);
+                return result;
+            }
+
+            @Override
+            Object combine(Interpreter worker, Object left, Object right) {
+                return call(worker, function, left, right);
+            }
+        });
+    }
+
+    private static Object run(Job job) {
+        try {
+            return pool.invoke(new Split(job, 0, job.elements.length));
+        } catch (StackOverflowError error) {
+            throw new Natives.NativeError("Stack overflow in parallel function.");
+        }
+    }
+
+    private static Object call(Interpreter worker, LoxCallable function, Object... arguments) {
+        return function.call(worker, Arrays.asList(arguments));
+    }
+
+    // Copies the elements out, so the workers don't read the list itself. Functions among
+    // them will be called from other threads, so they are shared first.
+    private static Object[] elements(LoxList list) {
+        Object[] elements = new Object[list.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = list.get(i);
+            if (elements[i] instanceof LoxCallable) LoxTask.share((LoxCallable) elements[i]);
+        }
+        return elements;
+    }
+
+    private static void checkFunction(LoxCallable function, int arity) {
+        if (function.arity() != arity) {
+            throw new Natives.NativeError("Expected a function that takes "
+                    + (arity == 1 ? "one argument." : "two arguments."));
+        }
+        checkCaptures(function);
+        LoxTask.share(function);
+    }
+
+    // Rejects a function that uses an outer variable that could be reassigned while the
+    // workers run, directly or through anything it can reach from the vals it uses, since the
+    // workers may call any of it: other functions, the methods, getters, setters and class
+    // methods of classes and their superclasses, and the classes and fields of instances, lists
+    // and maps. Natives use no Lox variables. It walks with a worklist, as freeze does, so
+    // long chains are fine.
+    private static void checkCaptures(LoxCallable function) {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(function);
+
+        while (!pending.isEmpty()) {
+            Object value = pending.pop();
+            if (!seen.add(value)) continue;
+
+            if (value instanceof LoxInstance) {
+                // A class's own class holds its class methods.
+                LoxInstance instance = (LoxInstance) value;
+                push(pending, instance.getKlass());
+                for (Object field : instance.fieldValues()) push(pending, field);
+                if (value instanceof LoxClass) {
+                    LoxClass klass = (LoxClass) value;
+                    push(pending, klass.superclass);
+                    for (LoxFunction method : klass.methods().values()) push(pending, method);
+                }
+            } else if (value instanceof LoxList) {
+                LoxList list = (LoxList) value;
+                if (list.holdsOnlyNumbers()) continue;
+                for (int i = 0; i < list.size(); i++) push(pending, list.get(i));
+            } else if (value instanceof LoxMap) {
+                LoxList keys = ((LoxMap) value).keys();
+                for (int i = 0; i < keys.size(); i++) {
+                    push(pending, keys.get(i));
+                    push(pending, ((LoxMap) value).get(keys.get(i)));
+                }
+            } else if (value instanceof LoxFunction) {
+                LoxFunction reached = (LoxFunction) value;
+                checkCells(pending, reached.captures(), reached.closure());
+            } else if (value instanceof LoxAnonFunction) {
+                LoxAnonFunction reached = (LoxAnonFunction) value;
+                checkCells(pending, reached.captures(), reached.closure());
+            }
+        }
+    }
+
+    private static void checkCells(Deque<Object> pending, Token[] captures, Environment closure) {
+        for (Token name : captures) {
+            Environment.Cell cell = closure.find(name.lexeme);
+            if (cell == null) continue;
+            if (cell.isMutable) {
+                throw new Natives.NativeError("Can't run a function in parallel when it uses the"
+                        + " variable '" + name.lexeme + "'; only vals, functions and classes can be shared.");
+            }
+            push(pending, cell.value);
+        }
+    }
+
+    // Numbers, strings and the like can't lead to any code.
+    private static void push(Deque<Object> pending, Object value) {
+        if (value instanceof LoxInstance || value instanceof LoxList || value instanceof LoxMap
+                || value instanceof LoxFunction || value instanceof LoxAnonFunction) {
+            pending.push(value);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+// Runs scripts sent over a local socket, so every request skips JVM startup and runs on a
+// warmed-up JIT. Scripts in the --scripts directory are compiled once at startup and can be
+// run by name. Each run gets an interpreter from a pool, with its own globals and I/O.
+//
+// A connection carries any number of requests, one after another. A request is a header
+// line followed by the bytes it announces:
+//   run <source bytes> <input bytes>\n<source><input>
+//   call <script name> <input bytes>\n<input>
+// The reply streams the script's output as it is flushed, and then gives the status:
+//   out <bytes>\n<output>        (any number of times)
+//   done <status> <bytes>\n<errors, one per line>
+// Status is 0, 65 for a compile error, 70 for a runtime error, or 64 for a bad request.
+// Output from tasks a script leaves running is sent only until its "done".
+// The --max-* options limit every run, so one runaway script can't hold an interpreter.
+public class LoxServer {
+    private static final int DEFAULT_PORT = 7070;
+    // Sources and inputs larger than this are refused.
+    private static final int MAX_REQUEST = 1 << 26;
+
+    private final Map<String, CompiledScript> scripts;
+    private final InterpreterPool pool;
+    private final Budget.Limits limits;
+    private final LoxEngine engine = new LoxEngine();
+
+    private LoxServer(Map<String, CompiledScript> scripts, int interpreters, Budget.Limits limits) {
+        this.scripts = scripts;
+        this.pool = new InterpreterPool(interpreters);
+        this.limits = limits;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        Path socket = null;
+        Path scriptDir = null;
+        int interpreters = Runtime.getRuntime().availableProcessors();
+        Budget.Limits limits = Budget.Limits.NONE;
+        try {
+            for (int argc = 0; argc < args.length; argc++) {
+                switch (args[argc]) {
+                    case "--port" -> port = Integer.parseInt(args[++argc]);
+                    case "--socket" -> socket = Paths.get(args[++argc]);
+                    case "--scripts" -> scriptDir = Paths.get(args[++argc]);
+                    case "--interpreters" -> interpreters = Integer.parseInt(args[++argc]);
+                    case "--max-steps" -> limits = limits.withSteps(Long.parseLong(args[++argc]));
+                    case "--max-millis" -> limits = limits.withMillis(Long.parseLong(args[++argc]));
+                    case "--max-depth" -> limits = limits.withDepth(Long.parseLong(args[++argc]));
+                    case "--max-instances" -> limits = limits.withInstances(Long.parseLong(args[++argc]));
+                    default -> usage();
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            usage();
+        }
+        if (interpreters < 1) usage();
+
+        Map<String, CompiledScript> scripts = scriptDir == null ? Map.of() : compileAll(scriptDir);
+        LoxServer server = new LoxServer(scripts, interpreters, limits);
+
+        ServerSocketChannel channel;
+        SocketAddress address;
+        if (socket != null) {
+            Files.deleteIfExists(socket);
+            channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            address = UnixDomainSocketAddress.of(socket);
+            socket.toFile().deleteOnExit();
+        } else {
+            channel = ServerSocketChannel.open();
+            address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        }
+        channel.bind(address);
+        System.out.println("Listening on " + address + " with " + scripts.size() + " scripts and "
+                + interpreters + " interpreters.");
+        server.serve(channel);
+    }
+
+    private static void usage() {
+        System.out.println("Usage: loxserver [--port n | --socket path] [--scripts directory] "
+                + "[--interpreters n] [--max-steps n] [--max-millis n] [--max-depth n] "
+                + "[--max-instances n]");
+        System.exit(64);
+    }
+
+    // Stops with status 65 if any script doesn't compile, so mistakes show up at startup.
+    private static Map<String, CompiledScript> compileAll(Path directory) throws IOException {
+        LoxEngine engine = new LoxEngine();
+        Map<String, CompiledScript> scripts = new HashMap<>();
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(file -> file.toString().endsWith(".lox")).sorted().toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString().replaceFirst("\\.lox$", "");
+            try {
+                scripts.put(name, engine.compile(Files.readString(file, StandardCharsets.UTF_8)));
+            } catch (CompileError error) {
+                System.err.println(file + ":");
+                error.errors().forEach(System.err::println);
+                System.exit(65);
+            }
+        }
+        return scripts;
+    }
+
+    // Java 17 has no virtual threads. Each connection gets a thread from a cached pool, since
+    // it mostly waits on its client; the interpreter pool is what bounds the running scripts.
+    // Scripts run on the connection's thread, so it gets a task's stack.
+    private void serve(ServerSocketChannel channel) throws IOException {
+        ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(null, runnable, "lox-connection", LoxTask.STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        });
+        while (true) {
+            SocketChannel client = channel.accept();
+            // Replies go out in small frames, which Nagle's algorithm would hold back.
+            if (client.getLocalAddress() instanceof InetSocketAddress) {
+                client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            }
+            connections.execute(() -> handle(client));
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client) {
+            InputStream in = new BufferedInputStream(Channels.newInputStream(client));
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(client));
+            while (true) {
+                String header = readHeader(in);
+                if (header == null) return;
+                if (!respond(header, in, out)) return;
+            }
+        } catch (IOException e) {
+            // The client went away; there's no one to tell.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Returns false if the request was malformed, after which the connection is closed.
+    private boolean respond(String header, InputStream in, OutputStream out)
+            throws IOException, InterruptedException {
+        String[] parts = header.split(" ");
+        CompiledScript script;
+        byte[] input;
+        try {
+            if (parts[0].equals("run") && parts.length == 3) {
+                String source = new String(readBytes(in, parts[1]), StandardCharsets.UTF_8);
+                input = readBytes(in, parts[2]);
+                try {
+                    script = engine.compile(source);
+                } catch (CompileError error) {
+                    done(out, 65, error.errors());
+                    return true;
+                }
+            } else if (parts[0].equals("call") && parts.length == 3) {
+                script = scripts.get(parts[1]);
+                input = readBytes(in, parts[2]);
+                if (script == null) {
+                    done(out, 64, List.of("Unknown script '" + parts[1] + "'."));
+                    return true;
+                }
+            } else {
+                done(out, 64, List.of("Bad request."));
+                return false;
+            }
+        } catch (NumberFormatException e) {
+            done(out, 64, List.of("Bad request."));
+            return false;
+        }
+
+        FrameOutputStream frames = new FrameOutputStream(out);
+        ExecutionContext context = new ExecutionContext(new ByteArrayInputStream(input), frames)
+                .limit(limits);
+        int status;
+        List<String> errors;
+        try {
+            ExecutionResult result = script.execute(context, pool);
+            status = result.status();
+            errors = result.errors();
+        } catch (StackOverflowError error) {
+            status = 70;
+            errors = List.of("Stack overflow.");
+        } finally {
+            // Tasks the script didn't wait for may still be running. Their output after this
+            // point is dropped, so it can't land in the middle of the next request's reply.
+            frames.close();
+        }
+        done(out, status, errors);
+        return true;
+    }
+
+    private static void done(OutputStream out, int status, List<String> errors) throws IOException {
+        byte[] text = String.join("\n", errors).getBytes(StandardCharsets.UTF_8);
+        out.write(("done " + status + " " + text.length + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(text);
+        out.flush();
+    }
+
+    // Returns null if the connection ends between requests.
+    static String readHeader(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                if (line.size() == 0) return null;
+                throw new EOFException();
+            }
+            if (b == '\n') return line.toString(StandardCharsets.UTF_8);
+            if (line.size() > 1024) throw new IOException("Header is too long.");
+            line.write(b);
+        }
+    }
+
+    static byte[] readBytes(InputStream in, String length) throws IOException {
+        int count = Integer.parseInt(length);
+        if (count < 0 || count > MAX_REQUEST) throw new NumberFormatException();
+        byte[] bytes = in.readNBytes(count);
+        if (bytes.length < count) throw new EOFException();
+        return bytes;
+    }
+
+    // Sends each chunk of output as an "out" frame as soon as the script flushes it. Once
+    // closed, which is before the request's "done", anything written is thrown away.
+    private static final class FrameOutputStream extends OutputStream {
+        private final OutputStream out;
+        private boolean isClosed = false;
+
+        FrameOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0 || isClosed) return;
+            out.write(("out " + length + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(bytes, offset, length);
+            out.flush();
+        }
+
+        // Waits for a write in progress, and leaves the connection's stream open.
+        @Override
+        public synchronized void close() {
+            isClosed = true;
+        }
+    }
+}
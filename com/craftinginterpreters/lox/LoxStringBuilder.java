@@ -0,0 +1,32 @@
+package com.craftinginterpreters.lox;
+
+// A mutable string for scripts that build text a piece at a time, where '+' would copy the
+// whole string on every step.
+class LoxStringBuilder {
+    private final StringBuilder builder = new StringBuilder();
+
+    int length() {
+        return builder.length();
+    }
+
+    void append(Object value) {
+        if (value instanceof String) {
+            builder.append((String) value);
+        } else if (value instanceof Double) {
+            Natives.appendNumber(builder, (double) value);
+        } else if (value instanceof LoxStringBuilder) {
+            builder.append(((LoxStringBuilder) value).builder);
+        } else {
+            builder.append(Natives.stringify(value));
+        }
+    }
+
+    void appendNumber(double value) {
+        Natives.appendNumber(builder, value);
+    }
+
+    @Override
+    public String toString() {
+        return builder.toString();
+    }
+}
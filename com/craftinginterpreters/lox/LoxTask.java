@@ -0,0 +1,138 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+// Work running on a thread of its own: a function started by spawn() or by calling an async
+// function, or a read started by one of the async I/O natives. Tasks may block on channels
+// or I/O, so each gets a real thread rather than a slot in a fixed pool. A task a script
+// doesn't wait for keeps running after the script ends; the threads are daemons, so only
+// exiting the JVM stops it early.
+class LoxTask {
+    // The main thread usually has a bigger stack than new threads get by default.
+    static final long STACK_SIZE = 1 << 23;
+
+    private static final ExecutorService threads = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(null, runnable, "lox-task", STACK_SIZE);
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The last read queued on each source, so reads of one source run in the order asked.
+    private static final Map<TextSource, CompletableFuture<Object>> lastReads = new WeakHashMap<>();
+
+    private final Future<Object> result;
+    // Set once something joins the task, and once the task has reported its own error.
+    private boolean waited = false;
+    private boolean reported = false;
+
+    private LoxTask(Future<Object> result) {
+        this.result = result;
+    }
+
+    // Runs body with an interpreter spawned from parent. Anything the body shares with the
+    // parent must have been shared first. If the body fails before anything joins the task,
+    // the error is reported right away, since nothing may ever join it.
+    static LoxTask start(Interpreter parent, Function<Interpreter, Object> body) {
+        Interpreter interpreter = parent.spawn();
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        LoxTask task = new LoxTask(result);
+        threads.execute(() -> {
+            try {
+                result.complete(body.apply(interpreter));
+            } catch (Throwable error) {
+                if (task.report()) {
+                    if (error instanceof RuntimeError) {
+                        interpreter.reportError((RuntimeError) error);
+                    } else {
+                        interpreter.reportError(message(error));
+                    }
+                }
+                result.completeExceptionally(error);
+            }
+        });
+        return task;
+    }
+
+    private synchronized boolean report() {
+        reported = !waited;
+        return reported;
+    }
+
+    static LoxTask run(Callable<Object> work) {
+        return new LoxTask(threads.submit(work));
+    }
+
+    // Reads the next line of a source once every read queued on it before has finished.
+    static LoxTask readLine(TextSource source) {
+        synchronized (lastReads) {
+            CompletableFuture<Object> previous = lastReads.get(source);
+            if (previous == null) previous = CompletableFuture.completedFuture(null);
+            CompletableFuture<Object> next = previous.handleAsync((ignored, error) -> {
+                try {
+                    return source.readLine();
+                } catch (IOException e) {
+                    throw Natives.readError(source);
+                }
+            }, threads);
+            lastReads.put(source, next);
+            return new LoxTask(next);
+        }
+    }
+
+    // Waits for the task and returns its result. A runtime error in the task is raised again
+    // here, with the line where it happened, unless the task has already reported it.
+    Object join() {
+        synchronized (this) {
+            waited = true;
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Natives.NativeError("Interrupted while joining a task.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            synchronized (this) {
+                if (reported) throw new Natives.NativeError("Joined a task that failed.");
+            }
+            if (cause instanceof RuntimeError) throw (RuntimeError) cause;
+            if (cause instanceof Natives.NativeError) throw (Natives.NativeError) cause;
+            throw new Natives.NativeError(message(cause));
+        }
+    }
+
+    private static String message(Throwable error) {
+        if (error instanceof Natives.NativeError) return error.getMessage();
+        if (error instanceof StackOverflowError) return "Stack overflow in task.";
+        return "Task failed: " + error;
+    }
+
+    // Makes the environments a function closes over safe to read from another thread.
+    static void share(LoxCallable function) {
+        if (function instanceof LoxFunction) ((LoxFunction) function).closure().share();
+        if (function instanceof LoxAnonFunction) ((LoxAnonFunction) function).closure().share();
+    }
+
+    // Shares the function and any functions among the arguments it will be called with.
+    static void share(LoxCallable function, List<Object> arguments) {
+        share(function);
+        for (Object argument : arguments) {
+            if (argument instanceof LoxCallable) share((LoxCallable) argument);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+}
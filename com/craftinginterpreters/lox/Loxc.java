@@ -0,0 +1,118 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+// Compiles a script ahead of time into class files, run with
+// `java -cp <jlox>:<output directory> <ClassName>`. Top-level functions and loops become
+// bytecode (see JavaGenerator), and the resolved tree ships beside them for the rest, so the
+// script starts without scanning, parsing or resolving.
+public class Loxc {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: loxc <script> <output directory>");
+            System.exit(64);
+        }
+
+        Path script = Paths.get(args[0]);
+        Path outputDir = Paths.get(args[1]);
+
+        byte[] bytes = Files.readAllBytes(script);
+        String source = new String(bytes, Charset.defaultCharset());
+        List<Stmt> statements = Lox.compile(source, ErrorReporter.stderr(), new Program());
+        if (statements == null) System.exit(65);
+
+        String className = className(script);
+        JavaGenerator generator = new JavaGenerator(script.getFileName().toString(), className);
+        Map<String, String> sources = generator.generate(statements);
+
+        // The image sits beside the program class, which loads it as a resource.
+        Path packageDir = outputDir.resolve(Paths.get("com", "craftinginterpreters", "lox"));
+        Files.createDirectories(packageDir);
+        try (OutputStream out = Files.newOutputStream(packageDir.resolve(generator.programClass() + ".ast"))) {
+            AstCache.write(out, statements);
+        }
+
+        String launcher =
+                "public class " + className + " {\n" +
+                "    public static void main(String[] args) throws java.io.IOException {\n" +
+                "        com.craftinginterpreters.lox." + generator.programClass() + ".main(args);\n" +
+                "    }\n" +
+                "}\n";
+        if (!compileClasses(className, launcher, sources, outputDir)) System.exit(70);
+    }
+
+    // The generated classes go in jlox's package, to reach the interpreter; the launcher
+    // goes in the default one.
+    private static boolean compileClasses(String className, String launcher, Map<String, String> sources,
+                                          Path outputDir) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            System.err.println("loxc needs a JDK to compile the script's classes.");
+            return false;
+        }
+
+        Path sourceDir = Files.createTempDirectory("loxc");
+        try {
+            List<String> arguments = new ArrayList<>(List.of(
+                    "-cp", System.getProperty("java.class.path"),
+                    "-d", outputDir.toString(),
+                    "-proc:none"));
+
+            Path launcherSource = sourceDir.resolve(className + ".java");
+            Files.writeString(launcherSource, launcher);
+            arguments.add(launcherSource.toString());
+
+            Path packageDir = sourceDir.resolve(Paths.get("com", "craftinginterpreters", "lox"));
+            Files.createDirectories(packageDir);
+            for (Map.Entry<String, String> source : sources.entrySet()) {
+                Path path = packageDir.resolve(source.getKey() + ".java");
+                Files.writeString(path, source.getValue());
+                arguments.add(path.toString());
+            }
+
+            return compiler.run(null, null, null, arguments.toArray(new String[0])) == 0;
+        } finally {
+            try (Stream<Path> paths = Files.walk(sourceDir)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    // "number-guessing-game.lox" becomes "NumberGuessingGame".
+    private static String className(Path script) {
+        String name = script.getFileName().toString();
+        if (name.endsWith(".lox")) name = name.substring(0, name.length() - 4);
+
+        StringBuilder builder = new StringBuilder();
+        boolean upper = true;
+        for (char c : name.toCharArray()) {
+            if (!Character.isJavaIdentifierPart(c)) {
+                upper = true;
+            } else if (upper) {
+                builder.append(Character.toUpperCase(c));
+                upper = false;
+            } else {
+                builder.append(c);
+            }
+        }
+
+        if (builder.length() == 0 || !Character.isJavaIdentifierStart(builder.charAt(0))) {
+            builder.insert(0, "Lox");
+        }
+        return builder.toString();
+    }
+}
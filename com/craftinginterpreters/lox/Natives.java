@@ -1,8 +1,15 @@
 package com.craftinginterpreters.lox;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 class Natives {
     abstract static class NativeFunction implements LoxCallable {
@@ -11,6 +18,14 @@ class Natives {
             return "<native fn>";
         }
     }
+
+    // Thrown by natives for bad arguments; the interpreter reports it at the call site.
+    static class NativeError extends RuntimeException {
+        NativeError(String message) {
+            super(message);
+        }
+    }
+
     static final Map<String, LoxCallable> all;
     static {
         all = new HashMap<>();
@@ -115,19 +130,988 @@ class Natives {
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
-                Object object = arguments.get(0);
-                if (object == null) return "nil";
+                return stringify(arguments.get(0));
+            }
+        });
+        all.put("flush", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                interpreter.flush();
+                return null;
+            }
+        });
+        all.put("lines", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            // Returns a function that reads the next line of stdin each time it's called,
+            // parsed the same way as input, and nil once stdin runs out.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return new NativeFunction() {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        String line;
+                        try {
+                            line = interpreter.stdin().readLine();
+                        } catch (IOException e) {
+                            throw new NativeError("There was an error reading input.");
+                        }
+                        return line == null ? null : Interpreter.parseInput(line);
+                    }
+                };
+            }
+        });
+        all.put("read", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            // Reads up to the given number of bytes of stdin as a string, or nil at the end.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof Double)
+                        || (double) arguments.get(0) < 1
+                        || (double) arguments.get(0) > Integer.MAX_VALUE - 8) {
+                    throw new NativeError("Byte count must be a positive number.");
+                }
+                try {
+                    return interpreter.stdin().read((int) (double) arguments.get(0));
+                } catch (IOException e) {
+                    throw new NativeError("There was an error reading input.");
+                }
+            }
+        });
+        all.put("builder", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return new LoxStringBuilder();
+            }
+        });
+        all.put("append", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            // Appends any value as print would show it. Returns the builder so calls can chain.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxStringBuilder builder = checkBuilder(arguments.get(0));
+                builder.append(arguments.get(1));
+                return builder;
+            }
+        });
+        all.put("appendNumber", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxStringBuilder builder = checkBuilder(arguments.get(0));
+                if (!(arguments.get(1) instanceof Double)) throw new NativeError("Expected a number.");
+                builder.appendNumber((double) arguments.get(1));
+                return builder;
+            }
+        });
+        // The same native as stringify, under the name the builder natives suggest.
+        all.put("toString", all.get("stringify"));
+        all.put("substring", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            // From start up to but not including end.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                String string = checkString(arguments.get(0));
+                int start = checkBound(arguments.get(1), string.length());
+                int end = checkBound(arguments.get(2), string.length());
+                if (start > end) throw new NativeError("String index out of range.");
+                return string.substring(start, end);
+            }
+        });
+        all.put("indexOf", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            // Returns -1 if the string doesn't contain the other one.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                String string = checkString(arguments.get(0));
+                return (double) string.indexOf(checkString(arguments.get(1)));
+            }
+        });
+        all.put("charAt", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                String string = checkString(arguments.get(0));
+                int index = checkIndex(arguments.get(1), string.length(), "String");
+                return String.valueOf(string.charAt(index));
+            }
+        });
+        all.put("split", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            // Returns a function that gives the next piece each time it's called, then nil.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                String string = checkString(arguments.get(0));
+                String separator = checkString(arguments.get(1));
+                if (separator.isEmpty()) throw new NativeError("Separator must not be empty.");
+                return new NativeFunction() {
+                    private int start = 0;
+
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        if (start > string.length()) return null;
+                        int end = string.indexOf(separator, start);
+                        if (end < 0) end = string.length();
+                        String piece = string.substring(start, end);
+                        start = end + separator.length();
+                        return piece;
+                    }
+                };
+            }
+        });
+        all.put("join", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxList list = checkList(arguments.get(0));
+                String separator = checkString(arguments.get(1));
+                StringBuilder builder = new StringBuilder();
+                for (int i = 0; i < list.size(); i++) {
+                    if (i > 0) builder.append(separator);
+                    list.appendTo(builder, i);
+                }
+                return builder.toString();
+            }
+        });
+        all.put("list", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return new LoxList();
+            }
+        });
+        all.put("push", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                checkList(arguments.get(0)).push(arguments.get(1));
+                return null;
+            }
+        });
+        all.put("pop", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxList list = checkList(arguments.get(0));
+                if (list.size() == 0) throw new NativeError("Can't pop from an empty list.");
+                return list.pop();
+            }
+        });
+        all.put("get", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object container = arguments.get(0);
+                Object key = arguments.get(1);
+                if (container instanceof LoxMap) return ((LoxMap) container).get(key);
+                if (container instanceof Json.LazyObject) {
+                    return key instanceof String ? ((Json.LazyObject) container).get((String) key) : null;
+                }
+                if (container instanceof Json.LazyArray) {
+                    Json.LazyArray array = (Json.LazyArray) container;
+                    return array.get(checkIndex(key, array.size(), "Array"));
+                }
+                if (container instanceof CsvReader.Row) {
+                    CsvReader.Row row = (CsvReader.Row) container;
+                    return row.get(checkIndex(key, row.size(), "Row"));
+                }
+
+                LoxList list = checkList(container);
+                return list.get(checkIndex(key, list.size(), "List"));
+            }
+        });
+        all.put("set", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxList list = checkList(arguments.get(0));
+                list.set(checkIndex(arguments.get(1), list.size(), "List"), arguments.get(2));
+                return arguments.get(2);
+            }
+        });
+        all.put("length", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object container = arguments.get(0);
+                if (container instanceof LoxMap) return (double) ((LoxMap) container).size();
+                if (container instanceof Json.LazyObject) {
+                    return (double) ((Json.LazyObject) container).size();
+                }
+                if (container instanceof Json.LazyArray) {
+                    return (double) ((Json.LazyArray) container).size();
+                }
+                if (container instanceof CsvReader.Row) return (double) ((CsvReader.Row) container).size();
+                if (container instanceof String) return (double) ((String) container).length();
+                if (container instanceof LoxStringBuilder) {
+                    return (double) ((LoxStringBuilder) container).length();
+                }
+                return (double) checkList(container).size();
+            }
+        });
+        all.put("sort", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!checkList(arguments.get(0)).sort()) {
+                    throw new NativeError("Can only sort lists of numbers or lists of strings.");
+                }
+                return null;
+            }
+        });
+        all.put("map", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return new LoxMap();
+            }
+        });
+        all.put("put", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                checkMap(arguments.get(0)).put(arguments.get(1), arguments.get(2));
+                return arguments.get(2);
+            }
+        });
+        all.put("has", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (arguments.get(0) instanceof Json.LazyObject) {
+                    return arguments.get(1) instanceof String
+                            && ((Json.LazyObject) arguments.get(0)).has((String) arguments.get(1));
+                }
+                return checkMap(arguments.get(0)).has(arguments.get(1));
+            }
+        });
+        all.put("remove", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return checkMap(arguments.get(0)).remove(arguments.get(1));
+            }
+        });
+        all.put("keys", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (arguments.get(0) instanceof Json.LazyObject) {
+                    return ((Json.LazyObject) arguments.get(0)).keys();
+                }
+                return checkMap(arguments.get(0)).keys();
+            }
+        });
+        all.put("open", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            // Mode is "r", "w" or "a".
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof String) || !(arguments.get(1) instanceof String)) {
+                    throw new NativeError("Expected a path and a mode.");
+                }
+                String path = (String) arguments.get(0);
+                try {
+                    LoxFile file = LoxFile.open(path, (String) arguments.get(1));
+                    interpreter.openFiles.add(file);
+                    return file;
+                } catch (IOException e) {
+                    throw new NativeError("Could not open file '" + path + "'.");
+                }
+            }
+        });
+        all.put("readLine", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            // Reads from a file or stdin(), returning nil at the end.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                TextSource source = checkSource(arguments.get(0));
+                try {
+                    return source.readLine();
+                } catch (IOException e) {
+                    throw readError(source);
+                }
+            }
+        });
+        all.put("readAll", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxFile file = checkFile(arguments.get(0));
+                try {
+                    return file.readAll();
+                } catch (IOException e) {
+                    throw new NativeError("Could not read file '" + file.path + "'.");
+                }
+            }
+        });
+        all.put("size", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxFile file = checkFile(arguments.get(0));
+                try {
+                    return (double) file.size();
+                } catch (IOException e) {
+                    throw new NativeError("Could not read file '" + file.path + "'.");
+                }
+            }
+        });
+        all.put("write", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxFile file = checkFile(arguments.get(0));
+                try {
+                    file.write(stringify(arguments.get(1)));
+                } catch (IOException e) {
+                    throw new NativeError("Could not write file '" + file.path + "'.");
+                }
+                return null;
+            }
+        });
+        all.put("writeLine", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            // Lox strings have no escapes, so this is the easy way to end a line.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxFile file = checkFile(arguments.get(0));
+                try {
+                    file.write(stringify(arguments.get(1)));
+                    file.write("\n");
+                } catch (IOException e) {
+                    throw new NativeError("Could not write file '" + file.path + "'.");
+                }
+                return null;
+            }
+        });
+        all.put("close", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            // Closes a file or a channel.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (arguments.get(0) instanceof LoxChannel) {
+                    ((LoxChannel) arguments.get(0)).close();
+                    return null;
+                }
 
-                if (object instanceof Double) {
-                    String text = object.toString();
-                    if (text.endsWith(".0")) {
-                        text = text.substring(0, text.length() - 2);
+                LoxFile file = checkFile(arguments.get(0));
+                interpreter.openFiles.remove(file);
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    throw new NativeError("Could not write file '" + file.path + "'.");
+                }
+                return null;
+            }
+        });
+        all.put("readFileAsync", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            // Starts reading a whole file, and returns a task to await for its text.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                String path = checkString(arguments.get(0));
+                return LoxTask.run(() -> {
+                    LoxFile file = null;
+                    try {
+                        file = LoxFile.open(path, "r");
+                        String text = file.readAll();
+                        return text == null ? "" : text;
+                    } catch (IOException e) {
+                        throw new NativeError("Could not read file '" + path + "'.");
+                    } finally {
+                        if (file != null) file.close();
                     }
-                    return text;
+                });
+            }
+        });
+        all.put("readLineAsync", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            // Starts reading a line from a file or stdin(), and returns a task to await for it.
+            // Reads of one source happen in the order they were started.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxTask.readLine(checkSource(arguments.get(0)));
+            }
+        });
+        all.put("spawn", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            // Runs a function with no parameters on its own thread, and returns a task to wait for.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof LoxCallable)
+                        || ((LoxCallable) arguments.get(0)).arity() != 0) {
+                    throw new NativeError("Can only spawn a function that takes no arguments.");
                 }
+                LoxCallable function = (LoxCallable) arguments.get(0);
+                LoxTask.share(function);
+                return LoxTask.start(interpreter,
+                        worker -> function.call(worker, Collections.emptyList()));
+            }
+        });
+        all.put("wait", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            // Waits for a task and returns what its function returned.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof LoxTask)) throw new NativeError("Expected a task.");
+                return ((LoxTask) arguments.get(0)).join();
+            }
+        });
+        all.put("channel", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object capacity = arguments.get(0);
+                if (!(capacity instanceof Double) || (double) capacity < 1
+                        || (double) capacity != Math.floor((double) capacity)
+                        || (double) capacity > Integer.MAX_VALUE - 8) {
+                    throw new NativeError("Channel capacity must be a positive whole number.");
+                }
+                return new LoxChannel((int) (double) capacity);
+            }
+        });
+        all.put("send", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxChannel channel = checkChannel(arguments.get(0));
+                if (arguments.get(1) == null) throw new NativeError("Can't send nil on a channel.");
+                share(arguments.get(1));
+                try {
+                    channel.send(arguments.get(1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new NativeError("Interrupted while sending.");
+                }
+                return null;
+            }
+        });
+        all.put("receive", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            // Returns nil once the channel is closed and empty.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxChannel channel = checkChannel(arguments.get(0));
+                try {
+                    return channel.receive();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new NativeError("Interrupted while receiving.");
+                }
+            }
+        });
+        all.put("share", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            // Lets several tasks use an instance's fields at once, and returns the instance.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                checkInstance(arguments.get(0)).share();
+                return arguments.get(0);
+            }
+        });
+        all.put("compareAndSet", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 4;
+            }
+
+            // Sets a field of a shared instance if it still equals the expected value, and
+            // returns whether it did.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxInstance instance = checkShared(arguments.get(0));
+                String name = checkString(arguments.get(1));
+                return instance.compareAndSet(name, arguments.get(2), arguments.get(3));
+            }
+        });
+        all.put("getAndAdd", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            // Adds to a number field of a shared instance, and returns the old value.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                LoxInstance instance = checkShared(arguments.get(0));
+                String name = checkString(arguments.get(1));
+                if (!(arguments.get(2) instanceof Double)) throw new NativeError("Expected a number.");
+                return instance.getAndAdd(name, (double) arguments.get(2));
+            }
+        });
+        all.put("freeze", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            // Makes a value and everything it holds immutable, and returns it. Frozen values
+            // can be shared between tasks without any locking.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                freeze(arguments.get(0));
+                return arguments.get(0);
+            }
+        });
+        all.put("isFrozen", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            // Numbers, strings, booleans and nil can't be changed, so they count as frozen.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object value = arguments.get(0);
+                if (value instanceof LoxInstance) return ((LoxInstance) value).isFrozen();
+                if (value instanceof LoxList) return ((LoxList) value).isFrozen();
+                if (value instanceof LoxMap) return ((LoxMap) value).isFrozen();
+                return value == null || value instanceof Double || value instanceof String
+                        || value instanceof Boolean;
+            }
+        });
+        all.put("parMap", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            // Calls the function on the elements on several threads at once.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxParallel.map(interpreter, checkList(arguments.get(0)),
+                        checkFunction(arguments.get(1)));
+            }
+        });
+        all.put("parFilter", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxParallel.filter(interpreter, checkList(arguments.get(0)),
+                        checkFunction(arguments.get(1)));
+            }
+        });
+        all.put("parReduce", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            // The function must be associative, and the initial value its identity.
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return LoxParallel.reduce(interpreter, checkList(arguments.get(0)),
+                        checkFunction(arguments.get(1)), arguments.get(2));
+            }
+        });
+        all.put("stdin", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return interpreter.stdin();
+            }
+        });
+        all.put("csv", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            // Returns a function that reads the next row each time it's called, or nil at the
+            // end. Fields are read with get().
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                TextSource source = checkSource(arguments.get(0));
+                CsvReader reader = new CsvReader(source);
+                return new NativeFunction() {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
 
-                return object.toString();
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        try {
+                            return reader.next();
+                        } catch (IOException e) {
+                            throw readError(source);
+                        }
+                    }
+                };
             }
         });
+        all.put("json", new NativeFunction() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            // Returns a function that reads the next record each time it's called, or nil at
+            // the end. Objects and arrays are read with get(), has(), keys() and length().
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                TextSource source = checkSource(arguments.get(0));
+                JsonReader reader = new JsonReader(source);
+                return new NativeFunction() {
+                    @Override
+                    public int arity() {
+                        return 0;
+                    }
+
+                    @Override
+                    public Object call(Interpreter interpreter, List<Object> arguments) {
+                        try {
+                            return reader.next();
+                        } catch (IOException e) {
+                            throw readError(source);
+                        }
+                    }
+                };
+            }
+        });
+    }
+
+    static String stringify(Object object) {
+        if (object == null) return "nil";
+
+        if (object instanceof Double) {
+            double value = (double) object;
+            if (isSmallInteger(value)) return Long.toString((long) value);
+
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+
+        return object.toString();
+    }
+
+    // Appends a number as stringify() would show it.
+    static void appendNumber(StringBuilder builder, double value) {
+        if (isSmallInteger(value)) {
+            builder.append((long) value);
+        } else {
+            builder.append(stringify(value));
+        }
+    }
+
+    // Whole numbers that Double.toString() shows without an exponent, so printing them as a
+    // long gives the same text. -0 is left out, since it prints with its sign.
+    private static boolean isSmallInteger(double value) {
+        return value == (long) value && Math.abs(value) < 1e7
+                && (value != 0 || Double.doubleToRawLongBits(value) == 0);
+    }
+
+    private static LoxList checkList(Object object) {
+        if (object instanceof LoxList) return (LoxList) object;
+        throw new NativeError("Expected a list.");
+    }
+
+    private static LoxCallable checkFunction(Object object) {
+        if (object instanceof LoxCallable) return (LoxCallable) object;
+        throw new NativeError("Expected a function.");
+    }
+
+    private static LoxInstance checkInstance(Object object) {
+        if (object instanceof LoxInstance) return (LoxInstance) object;
+        throw new NativeError("Expected an instance.");
+    }
+
+    private static LoxInstance checkShared(Object object) {
+        LoxInstance instance = checkInstance(object);
+        if (!instance.isShared()) throw new NativeError("Instance must be shared first.");
+        return instance;
+    }
+
+    private static LoxMap checkMap(Object object) {
+        if (object instanceof LoxMap) return (LoxMap) object;
+        throw new NativeError("Expected a map.");
+    }
+
+    private static LoxFile checkFile(Object object) {
+        if (object instanceof LoxFile) return (LoxFile) object;
+        throw new NativeError("Expected a file.");
+    }
+
+    private static String checkString(Object object) {
+        if (object instanceof String) return (String) object;
+        throw new NativeError("Expected a string.");
+    }
+
+    private static LoxStringBuilder checkBuilder(Object object) {
+        if (object instanceof LoxStringBuilder) return (LoxStringBuilder) object;
+        throw new NativeError("Expected a string builder.");
+    }
+
+    // Like checkIndex, but allows the index just past the end.
+    private static int checkBound(Object index, int length) {
+        return index instanceof Double && (double) index == length
+                ? length
+                : checkIndex(index, length, "String");
+    }
+
+    private static LoxChannel checkChannel(Object object) {
+        if (object instanceof LoxChannel) return (LoxChannel) object;
+        throw new NativeError("Expected a channel.");
+    }
+
+    // Freezes the instances, lists and maps reachable from the value. It walks them with a
+    // worklist rather than recursion, so long chains and cycles are fine. Classes and
+    // functions are left as they are, unless the value is itself a class. Builders and files
+    // can't be frozen, and are found before anything changes.
+    private static void freeze(Object value) {
+        List<Object> reachable = new ArrayList<>();
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> pending = new ArrayDeque<>();
+        if (value instanceof LoxClass) {
+            seen.add(value);
+            reachable.add(value);
+            for (Object field : ((LoxClass) value).fieldValues()) pushMutable(pending, field);
+        } else {
+            pushMutable(pending, value);
+        }
+
+        while (!pending.isEmpty()) {
+            Object next = pending.pop();
+            if (next instanceof LoxStringBuilder) {
+                throw new NativeError("Can't freeze a string builder.");
+            }
+            if (next instanceof LoxFile) throw new NativeError("Can't freeze a file.");
+            if (!seen.add(next)) continue;
+
+            if (next instanceof LoxInstance) {
+                if (((LoxInstance) next).isFrozen()) continue;
+                for (Object field : ((LoxInstance) next).fieldValues()) pushMutable(pending, field);
+            } else if (next instanceof LoxList) {
+                LoxList list = (LoxList) next;
+                if (list.isFrozen()) continue;
+                for (int i = 0; i < list.size(); i++) pushMutable(pending, list.get(i));
+            } else {
+                LoxMap map = (LoxMap) next;
+                if (map.isFrozen()) continue;
+                LoxList keys = map.keys();
+                for (int i = 0; i < keys.size(); i++) {
+                    pushMutable(pending, keys.get(i));
+                    pushMutable(pending, map.get(keys.get(i)));
+                }
+            }
+            reachable.add(next);
+        }
+
+        for (Object object : reachable) {
+            if (object instanceof LoxInstance) ((LoxInstance) object).freeze();
+            if (object instanceof LoxList) ((LoxList) object).freeze();
+            if (object instanceof LoxMap) ((LoxMap) object).freeze();
+        }
+    }
+
+    private static void pushMutable(Deque<Object> pending, Object value) {
+        if (value instanceof LoxClass) return;
+        if (value instanceof LoxInstance || value instanceof LoxList || value instanceof LoxMap
+                || value instanceof LoxStringBuilder || value instanceof LoxFile) {
+            pending.push(value);
+        }
+    }
+
+    // Functions sent to another task need their closures made safe to share.
+    private static void share(Object value) {
+        if (value instanceof LoxCallable) LoxTask.share((LoxCallable) value);
+    }
+
+    private static TextSource checkSource(Object object) {
+        if (object instanceof TextSource) return (TextSource) object;
+        throw new NativeError("Expected a file or stdin().");
+    }
+
+    static NativeError readError(TextSource source) {
+        if (source instanceof LoxFile) {
+            return new NativeError("Could not read file '" + ((LoxFile) source).path + "'.");
+        }
+        return new NativeError("There was an error reading input.");
+    }
+
+    // Kind names what is being indexed, for the error messages.
+    private static int checkIndex(Object index, int size, String kind) {
+        if (!(index instanceof Double)) throw new NativeError(kind + " index must be a number.");
+
+        double value = (double) index;
+        if (value != Math.floor(value) || value < 0 || value >= size) {
+            throw new NativeError(kind + " index out of range.");
+        }
+        return (int) value;
     }
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+package com.craftinginterpreters.lox;
+
+// What Lox's arithmetic and comparison operators do. The interpreter and the classes loxc
+// generates both call these, so compiled scripts fail with the same errors at the same lines.
+final class Operators {
+    private Operators() {}
+
+    static boolean greater(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return (double)left > (double)right;
+        return compare(operator, left, right) > 0;
+    }
+
+    static boolean greaterEqual(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return (double)left >= (double)right;
+        return compare(operator, left, right) >= 0;
+    }
+
+    static boolean less(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return (double)left < (double)right;
+        return compare(operator, left, right) < 0;
+    }
+
+    static boolean lessEqual(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return (double)left <= (double)right;
+        return compare(operator, left, right) <= 0;
+    }
+
+    // Strings compare by their characters.
+    private static int compare(Token operator, Object left, Object right) {
+        if (left instanceof String && right instanceof String) {
+            return ((String)left).compareTo((String)right);
+        }
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+
+    static double subtract(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left - (double)right;
+    }
+
+    static Object add(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double)left + (double)right;
+        }
+
+        if (left instanceof String || right instanceof String) {
+            return Natives.stringify(left) + Natives.stringify(right);
+        }
+
+        throw new RuntimeError(
+                operator,
+                "Operands must be two numbers or a string and another object."
+        );
+    }
+
+    static double divide(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        if ((double)right == 0.0) throw new RuntimeError(operator, "Division by zero.");
+        return (double)left / (double)right;
+    }
+
+    static double multiply(Token operator, Object left, Object right) {
+        checkNumberOperands(operator, left, right);
+        return (double)left * (double)right;
+    }
+
+    static double negate(Token operator, Object right) {
+        if (right instanceof Double) return -(double)right;
+        throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return;
+
+        throw new RuntimeError(operator, "Operands must be numbers.");
+    }
+}
@@ -0,0 +1,82 @@
+package com.craftinginterpreters.lox;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+// Buffers printed text and writes it out in large chunks. Unlike System.out it isn't
+// synchronized and doesn't flush after every line; the interpreter decides when to flush.
+class Output {
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final String NEWLINE = System.lineSeparator();
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars;
+    private final ByteBuffer bytes;
+    // The first write error, if any.
+    private IOException error = null;
+
+    // Standard output, with a buffer of -Djlox.outputBuffer characters.
+    static Output stdout() {
+        int capacity = Integer.getInteger("jlox.outputBuffer", DEFAULT_CAPACITY);
+        return new Output(new FileOutputStream(FileDescriptor.out).getChannel(), Math.max(capacity, 1));
+    }
+
+    Output(WritableByteChannel channel, int capacity) {
+        this(channel, capacity, Charset.defaultCharset());
+    }
+
+    Output(WritableByteChannel channel, int capacity, Charset charset) {
+        this.channel = channel;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.chars = CharBuffer.allocate(capacity);
+        this.bytes = ByteBuffer.allocate((int) Math.ceil(capacity * encoder.maxBytesPerChar()));
+    }
+
+    void println(String text) {
+        write(text);
+        write(NEWLINE);
+    }
+
+    void write(String text) {
+        int start = 0;
+        while (start < text.length()) {
+            if (!chars.hasRemaining()) flush();
+            int count = Math.min(chars.remaining(), text.length() - start);
+            chars.put(text, start, start + count);
+            start += count;
+        }
+    }
+
+    void flush() {
+        chars.flip();
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, bytes, false);
+            bytes.flip();
+            try {
+                while (bytes.hasRemaining()) channel.write(bytes);
+            } catch (IOException e) {
+                // Like System.out, give up on output that can't be written.
+                if (error == null) error = e;
+            }
+            bytes.clear();
+        } while (result.isOverflow());
+        // Keeps half of a surrogate pair split across flushes.
+        chars.compact();
+    }
+
+    IOException error() {
+        return error;
+    }
+}
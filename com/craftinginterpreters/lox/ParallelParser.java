@@ -0,0 +1,140 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Scans and parses a large source in chunks on the common ForkJoinPool. The chunks are split
+// at top-level declaration boundaries found by a quick pre-scan that only tracks nesting,
+// strings, comments and line numbers.
+class ParallelParser {
+    // Smaller sources aren't worth splitting.
+    static final int THRESHOLD = 1 << 20;
+    private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+    private record Chunk(int start, int end, int line) {}
+
+    static List<Stmt> parse(String source, ErrorReporter errors) {
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+        return parse(source, Math.max(MIN_CHUNK_SIZE, source.length() / (4 * parallelism)), errors);
+    }
+
+    static List<Stmt> parse(String source, int chunkSize, ErrorReporter errors) {
+        List<ForkJoinTask<List<Stmt>>> tasks = new ArrayList<>();
+        for (Chunk chunk : split(source, chunkSize)) {
+            tasks.add(ForkJoinPool.commonPool().submit(() -> parseChunk(source, chunk)));
+        }
+
+        List<Stmt> statements = new ArrayList<>();
+        for (ForkJoinTask<List<Stmt>> task : tasks) {
+            List<Stmt> chunkStatements = task.join();
+            if (chunkStatements == null) {
+                // Parse again in one piece so errors are reported exactly as they normally are.
+                for (ForkJoinTask<List<Stmt>> other : tasks) other.cancel(false);
+                return new Parser(new Scanner(source, errors).scanTokens(), errors).parse();
+            }
+            statements.addAll(chunkStatements);
+        }
+
+        return statements;
+    }
+
+    // Returns null if the chunk had any errors. They are dropped rather than reported, since
+    // the whole source is parsed again to report them.
+    private static List<Stmt> parseChunk(String source, Chunk chunk) {
+        ErrorReporter errors = new ErrorReporter(message -> {});
+        Scanner scanner = new Scanner(source, chunk.start, chunk.end, chunk.line, errors);
+        List<Stmt> statements = new Parser(scanner.scanTokens(), errors).parse();
+        return errors.hadError ? null : statements;
+    }
+
+    private static List<Chunk> split(String source, int chunkSize) {
+        List<Chunk> chunks = new ArrayList<>();
+        int length = source.length();
+        int chunkStart = 0;
+        int chunkLine = 1;
+        int line = 1;
+        int depth = 0;
+
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i++);
+            boolean boundary = false;
+            switch (c) {
+                case '\n':
+                    line++;
+                    break;
+                case '"':
+                    while (i < length && source.charAt(i) != '"') {
+                        if (source.charAt(i) == '\n') line++;
+                        i++;
+                    }
+                    i++;
+                    break;
+                case '/':
+                    if (i < length && source.charAt(i) == '/') {
+                        while (i < length && source.charAt(i) != '\n') i++;
+                    } else if (i < length && source.charAt(i) == '*') {
+                        // Like the scanner, this doesn't count lines inside block comments.
+                        i = skipBlockComment(source, i + 1);
+                    }
+                    break;
+                case '(':
+                case '{':
+                    depth++;
+                    break;
+                case ')':
+                    depth--;
+                    break;
+                case '}':
+                    depth--;
+                    boundary = depth == 0 && startsDeclaration(source, i);
+                    break;
+                case ';':
+                    boundary = depth == 0;
+                    break;
+            }
+
+            if (boundary && i - chunkStart >= chunkSize) {
+                chunks.add(new Chunk(chunkStart, i, chunkLine));
+                chunkStart = i;
+                chunkLine = line;
+            }
+        }
+
+        chunks.add(new Chunk(chunkStart, length, chunkLine));
+        return chunks;
+    }
+
+    private static int skipBlockComment(String source, int i) {
+        int length = source.length();
+        for (int nestingLevel = 1; nestingLevel > 0 && i < length; i++) {
+            char next = i + 1 < length ? source.charAt(i + 1) : '\0';
+            if (source.charAt(i) == '*' && next == '/') {
+                i++;
+                nestingLevel--;
+            } else if (source.charAt(i) == '/' && next == '*') {
+                i++;
+                nestingLevel++;
+            }
+        }
+        return i;
+    }
+
+    // A '}' only ends a declaration if what follows can't continue it,
+    // as with "else" or an operator after a function expression.
+    private static boolean startsDeclaration(String source, int i) {
+        int length = source.length();
+        while (i < length && Character.isWhitespace(source.charAt(i))) i++;
+        if (i == length) return false;
+
+        char c = source.charAt(i);
+        if (!(c >= 'a' && c <= 'z') && !(c >= 'A' && c <= 'Z') && c != '_') return false;
+
+        int wordEnd = i;
+        while (wordEnd < length && Character.isLetterOrDigit(source.charAt(wordEnd))) wordEnd++;
+        String word = source.substring(i, wordEnd);
+        return !word.equals("else") && !word.equals("and") && !word.equals("or");
+    }
+}
@@ -2,7 +2,6 @@ package com.craftinginterpreters.lox;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 import static com.craftinginterpreters.lox.TokenType.*;
 
@@ -10,10 +9,12 @@ class Parser {
     private static class ParseError extends RuntimeException {}
 
     private final List<Token> tokens;
+    private final ErrorReporter errors;
     private int current = 0;
 
-    Parser(List<Token> tokens) {
+    Parser(List<Token> tokens, ErrorReporter errors) {
         this.tokens = tokens;
+        this.errors = errors;
     }
 
     List<Stmt> parse() {
@@ -25,6 +26,15 @@ class Parser {
         return statements;
     }
 
+    // Used to parse one top-level declaration at a time.
+    boolean hasNext() {
+        return !isAtEnd();
+    }
+
+    Stmt next() {
+        return declaration();
+    }
+
     Expr parseExpression() {
         try {
             return expression();
@@ -35,19 +45,16 @@ class Parser {
     }
 
     private Expr expression() {
-        return comma();
+        return parsePrecedence(Precedence.COMMA);
     }
 
     private Stmt declaration() {
         try {
             if (match(CLASS)) return classDeclaration();
-            if (match(FUN)) {
-                if (check(LEFT_PAREN)) {
-                    Expr expr = functionExpression();
-                    consume(SEMICOLON, "Expect ';' after anonymous function expression.");
-                    return new Stmt.Expression(expr);
-                }
-                return function("function");
+            if (match(FUN)) return functionDeclaration(false);
+            if (match(ASYNC)) {
+                consume(FUN, "Expect 'fun' after 'async'.");
+                return functionDeclaration(true);
             }
             if (match(VAL)) return valDefinition();
             if (match(VAR)) return varDeclaration();
@@ -76,7 +83,7 @@ class Parser {
 
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
             if (match(CLASS)) {
-                classMethods.add(function("method"));
+                classMethods.add(function("method", false));
             } else {
                 Token methodName = consume(IDENTIFIER, "Expect method name.");
                 if (match(LEFT_BRACE)) {
@@ -91,7 +98,9 @@ class Parser {
 
         consume(RIGHT_BRACE, "Expect '}' after class body.");
 
-        return new Stmt.Class(name, superclass, instanceMethods, classMethods, getterMethods, setterMethods);
+        return new Stmt.Class(name, superclass,
+                instanceMethods.toArray(new Stmt.Function[0]), classMethods.toArray(new Stmt.Function[0]),
+                getterMethods.toArray(new Stmt.Function[0]), setterMethods.toArray(new Stmt.Function[0]));
     }
 
     private Stmt statement() {
@@ -128,6 +137,7 @@ class Parser {
     }
 
     private Stmt forStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initializer;
@@ -155,18 +165,18 @@ class Parser {
 
         if (increment != null) {
             body = new Stmt.Block(
-                    Arrays.asList(
+                    new Stmt[] {
                             body,
                             new Stmt.Expression(increment)
-                    )
+                    }
             );
         }
 
         if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
+        body = new Stmt.While(keyword, condition, body);
 
         if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
+            body = new Stmt.Block(new Stmt[] { initializer, body });
         }
 
         return body;
@@ -231,13 +241,14 @@ class Parser {
     }
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after condition.");
 
         Stmt body = statement();
         
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }
 
     private Stmt expressionStatement() {
@@ -246,19 +257,28 @@ class Parser {
         return new Stmt.Expression(expr);
     }
 
-    private Stmt.Function function(String kind) {
+    private Stmt functionDeclaration(boolean isAsync) {
+        if (check(LEFT_PAREN)) {
+            Expr expr = functionExpression(isAsync);
+            consume(SEMICOLON, "Expect ';' after anonymous function expression.");
+            return new Stmt.Expression(expr);
+        }
+        return function("function", isAsync);
+    }
+
+    private Stmt.Function function(String kind, boolean isAsync) {
         Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
         consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
 
-        return functionContent(kind, name);
+        return functionContent(kind, name, isAsync);
     }
 
     private Stmt.Function method(Token name) {
         consume(LEFT_PAREN, "Expect '(' after method name.");
-        return functionContent("method", name);
+        return functionContent("method", name, false);
     }
 
-    private Stmt.Function functionContent(String kind, Token name) {
+    private Stmt.Function functionContent(String kind, Token name, boolean isAsync) {
         List<Token> parameters = new ArrayList<>();
         if (!check(RIGHT_PAREN)) {
             do {
@@ -271,14 +291,14 @@ class Parser {
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
 
-        List<Stmt> body = block();
+        Stmt[] body = block();
 
-        return new Stmt.Function(name, parameters, body);
+        return new Stmt.Function(name, parameters.toArray(new Token[0]), body, isAsync);
     }
 
     private Stmt.Function getterMethod(Token name) {
-        List<Stmt> body = block();
-        return new Stmt.Function(name, Collections.emptyList(), body);
+        Stmt[] body = block();
+        return new Stmt.Function(name, new Token[0], body, false);
     }
 
     private Stmt.Function setterMethod(Token name) {
@@ -290,14 +310,14 @@ class Parser {
         consume(RIGHT_PAREN, "Expect ')' after parameter in setter method.");
         consume(LEFT_BRACE, "Expect '{' before method body.");
 
-        List<Stmt> body = block();
+        Stmt[] body = block();
 
         // Change name to avoid collision with a getter/method.
         name = name.rename(name.lexeme + "=");
-        return new Stmt.Function(name, Collections.singletonList(parameter), body);
+        return new Stmt.Function(name, new Token[] { parameter }, body, false);
     }
 
-    private List<Stmt> block() {
+    private Stmt[] block() {
         List<Stmt> statements = new ArrayList<>();
 
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
@@ -305,136 +325,146 @@ class Parser {
         }
 
         consume(RIGHT_BRACE, "Expect '}' after block.");
-        return statements;
-    }
-
-    private Expr comma() {
-        Expr expr = assignment();
-        while (match(COMMA)) {
-            Token operator = previous();
-            Expr right = assignment();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr assignment() {
-        Expr expr = conditional();
-
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
-            } else if (expr instanceof Expr.Get) {
-                Expr.Get get = (Expr.Get)expr;
-                return new Expr.Set(get.object, get.name, value);
-            }
-
-            error(equals, "Invalid assignment target.");
-        }
-
-        return  expr;
-    }
-
-    private Expr conditional() {
-        Expr expr = or();
-
-        if (match(QUESTION_MARK)) {
-            // Parse left (middle) as if it is parenthesized.
-            Expr left = expression();
-            if (!match(COLON)) {
-                throw error(peek(), "Expect ':'");
-            }
-            Expr right = conditional();
-            expr = new Expr.Conditional(expr, left, right);
-        }
-
-        return expr;
-    }
-
-    private Expr or() {
-        Expr expr = and();
+        return statements.toArray(new Stmt[0]);
+    }
+
+    // Operator-precedence (Pratt) parsing. Each token type has a rule saying how to parse
+    // it at the start of an expression (prefix) and after an operand (infix).
+    private enum Precedence {
+        NONE,
+        COMMA,       // ,
+        ASSIGNMENT,  // =
+        CONDITIONAL, // ?:
+        OR,          // or
+        AND,         // and
+        EQUALITY,    // == !=
+        COMPARISON,  // < > <= >=
+        TERM,        // + -
+        FACTOR,      // * /
+        UNARY,       // ! -
+        CALL,        // . ()
+        PRIMARY;
+
+        private static final Precedence[] values = values();
+
+        Precedence next() {
+            return values[ordinal() + 1];
+        }
+    }
+
+    private interface PrefixRule {
+        Expr parse(Parser parser);
+    }
+
+    private interface InfixRule {
+        Expr parse(Parser parser, Expr left);
+    }
+
+    private record ParseRule(PrefixRule prefix, InfixRule infix, Precedence precedence) {}
+
+    private static final ParseRule[] rules = new ParseRule[TokenType.values().length];
+    static {
+        Arrays.fill(rules, new ParseRule(null, null, Precedence.NONE));
+        rule(LEFT_PAREN, Parser::grouping, Parser::finishCall, Precedence.CALL);
+        rule(COMMA, null, Parser::binary, Precedence.COMMA);
+        rule(DOT, null, Parser::dot, Precedence.CALL);
+        rule(MINUS, Parser::unary, Parser::binary, Precedence.TERM);
+        rule(PLUS, null, Parser::binary, Precedence.TERM);
+        rule(SLASH, null, Parser::binary, Precedence.FACTOR);
+        rule(STAR, null, Parser::binary, Precedence.FACTOR);
+        rule(QUESTION_MARK, null, Parser::conditional, Precedence.CONDITIONAL);
+        rule(BANG, Parser::unary, null, Precedence.NONE);
+        rule(BANG_EQUAL, null, Parser::binary, Precedence.EQUALITY);
+        rule(EQUAL, null, Parser::assignment, Precedence.ASSIGNMENT);
+        rule(EQUAL_EQUAL, null, Parser::binary, Precedence.EQUALITY);
+        rule(GREATER, null, Parser::binary, Precedence.COMPARISON);
+        rule(GREATER_EQUAL, null, Parser::binary, Precedence.COMPARISON);
+        rule(LESS, null, Parser::binary, Precedence.COMPARISON);
+        rule(LESS_EQUAL, null, Parser::binary, Precedence.COMPARISON);
+        rule(IDENTIFIER, Parser::variable, null, Precedence.NONE);
+        rule(STRING, Parser::literal, null, Precedence.NONE);
+        rule(NUMBER, Parser::literal, null, Precedence.NONE);
+        rule(AND, null, Parser::logical, Precedence.AND);
+        rule(OR, null, Parser::logical, Precedence.OR);
+        rule(FALSE, Parser::literal, null, Precedence.NONE);
+        rule(TRUE, Parser::literal, null, Precedence.NONE);
+        rule(NIL, Parser::literal, null, Precedence.NONE);
+        rule(FUN, Parser::functionExpression, null, Precedence.NONE);
+        rule(ASYNC, Parser::asyncFunctionExpression, null, Precedence.NONE);
+        rule(AWAIT, Parser::await, null, Precedence.NONE);
+        rule(SUPER, Parser::super_, null, Precedence.NONE);
+        rule(THIS, Parser::this_, null, Precedence.NONE);
+    }
+
+    private static void rule(TokenType type, PrefixRule prefix, InfixRule infix, Precedence precedence) {
+        rules[type.ordinal()] = new ParseRule(prefix, infix, precedence);
+    }
+
+    // Parses an expression containing only operators at the given precedence or higher.
+    private Expr parsePrecedence(Precedence precedence) {
+        PrefixRule prefix = rules[peek().type.ordinal()].prefix;
+        if (prefix == null) throw error(peek(), "Expect expression.");
+        advance();
+        Expr expr = prefix.parse(this);
 
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
+        while (precedence.compareTo(rules[peek().type.ordinal()].precedence) <= 0) {
+            InfixRule infix = rules[advance().type.ordinal()].infix;
+            expr = infix.parse(this, expr);
         }
 
         return expr;
     }
 
-    private Expr and() {
-        Expr expr = equality();
-
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
+    private Expr binary(Expr left) {
+        // Binary operators are left-associative.
+        Token operator = previous();
+        Expr right = parsePrecedence(rules[operator.type.ordinal()].precedence.next());
+        return new Expr.Binary(left, operator, right);
     }
 
-    private Expr equality() {
-        Expr expr = comparison();
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
+    private Expr logical(Expr left) {
+        Token operator = previous();
+        Expr right = parsePrecedence(rules[operator.type.ordinal()].precedence.next());
+        return new Expr.Logical(left, operator, right);
     }
 
-    private Expr comparison() {
-        Expr expr = term();
+    private Expr assignment(Expr target) {
+        Token equals = previous();
+        Expr value = parsePrecedence(Precedence.ASSIGNMENT);
 
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
+        if (target instanceof Expr.Variable) {
+            Token name = ((Expr.Variable)target).name;
+            return new Expr.Assign(name, value);
+        } else if (target instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)target;
+            return new Expr.Set(get.object, get.name, value);
         }
 
-        return expr;
+        error(equals, "Invalid assignment target.");
+        return target;
     }
 
-    private Expr term() {
-        Expr expr = factor();
-
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
+    private Expr conditional(Expr condition) {
+        // Parse left (middle) as if it is parenthesized.
+        Expr left = expression();
+        if (!match(COLON)) {
+            throw error(peek(), "Expect ':'");
         }
-
-        return expr;
+        Expr right = parsePrecedence(Precedence.CONDITIONAL);
+        return new Expr.Conditional(condition, left, right);
     }
 
-    private Expr factor() {
-        Expr expr = unary();
-
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
+    // Binds like a unary operator, so 'await f() + 1' awaits the call before adding.
+    private Expr await() {
+        Token keyword = previous();
+        Expr value = parsePrecedence(Precedence.UNARY);
+        return new Expr.Await(keyword, value);
     }
 
     private Expr unary() {
-        if (match(BANG, MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        }
-
-        return call();
+        Token operator = previous();
+        Expr right = parsePrecedence(Precedence.UNARY);
+        return new Expr.Unary(operator, right);
     }
 
     private Expr finishCall(Expr callee) {
@@ -445,72 +475,65 @@ class Parser {
                     error(peek(), "Can't have more than 255 arguments.");
                 }
                 // Use equality to avoid getting commas in call confused with comma operator.
-                arguments.add(equality());
+                arguments.add(parsePrecedence(Precedence.EQUALITY));
             } while (match(COMMA));
         }
 
         Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
 
-        return new Expr.Call(callee, paren, arguments);
+        return new Expr.Call(callee, paren, arguments.toArray(new Expr[0]));
     }
 
-    private Expr call() {
-        Expr expr = primary();
+    private Expr dot(Expr object) {
+        Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+        return new Expr.Get(object, name);
+    }
 
-        while (true) {
-            if (match(LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else if (match(DOT)) {
-                Token name = consume(IDENTIFIER, "Expect property name after '.'.");
-                expr = new Expr.Get(expr, name);
-            } else {
-                break;
-            }
+    private Expr literal() {
+        switch (previous().type) {
+            case FALSE: return new Expr.Literal(false);
+            case TRUE: return new Expr.Literal(true);
+            case NIL: return new Expr.Literal(null);
+            default: return new Expr.Literal(previous().literal);
         }
-
-        return expr;
     }
 
-    private Expr primary() {
-        if (match(FALSE)) return new Expr.Literal(false);
-        if (match(TRUE)) return new Expr.Literal(true);
-        if (match(NIL)) return new Expr.Literal(null);
-
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
+    private Expr super_() {
+        Token keyword = previous();
+        consume(DOT, "Expect '.' after 'super'.");
+        Token method = consume(IDENTIFIER, "Expect superclass method name.");
+        return new Expr.Super(keyword, method);
+    }
 
-        if (match(SUPER)) {
-            Token keyword = previous();
-            consume(DOT, "Expect '.' after 'super'.");
-            Token method = consume(IDENTIFIER, "Expect superclass method name.");
-            return new Expr.Super(keyword, method);
-        }
+    private Expr this_() {
+        return new Expr.This(previous());
+    }
 
-        if (match(THIS)) return new Expr.This(previous());
+    private Expr variable() {
+        return new Expr.Variable(previous());
+    }
 
-        if (match(FUN)) {
-            return functionExpression();
-        }
-        if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
+    private Expr grouping() {
+        Expr expr = expression();
+        consume(RIGHT_PAREN, "Expect ')' after expression.");
+        return new Expr.Grouping(expr);
+    }
 
-        if (match(LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
+    private Expr.Function functionExpression() {
+        return functionExpression(false);
+    }
 
-        throw error(peek(), "Expect expression.");
+    private Expr.Function asyncFunctionExpression() {
+        consume(FUN, "Expect 'fun' after 'async'.");
+        return functionExpression(true);
     }
 
-    private Expr.Function functionExpression() {
+    private Expr.Function functionExpression(boolean isAsync) {
         Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'fun' in expression.");
-        Stmt.Function function = functionContent("function", null);
+        Stmt.Function function = functionContent("function", null, isAsync);
 
-        return new Expr.Function(keyword, function.params, function.body);
+        return new Expr.Function(keyword, function.params, function.body, isAsync);
     }
 
     private boolean match(TokenType... types) {
@@ -552,7 +575,7 @@ class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        errors.error(token, message);
         return new ParseError();
     }
 
@@ -562,7 +585,8 @@ class Parser {
             if (previous().type == SEMICOLON) return;
 
             switch (peek().type) {
-                case CLASS: case FOR: case FUN: case IF: case PRINT: case RETURN: case VAR: case WHILE:
+                case ASYNC: case CLASS: case FOR: case FUN: case IF: case PRINT: case RETURN: case VAR:
+                case WHILE:
                     return;
             }
 
@@ -0,0 +1,33 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// What the nodes of one program share: dense IDs, so a pass can keep per-node data in an
+// array of nodeCount() entries, and an index for each global the program has found, which
+// Variable and Assign nodes keep in their global slot. Each interpreter running the program
+// keeps its own cells at those indexes. The command line has one program for everything it
+// runs; each compiled script has its own, which goes away with it.
+final class Program {
+    // Nodes are numbered on one thread, while the program is resolved or read back, but
+    // interpreters on other threads may size their tables from the count.
+    private volatile int nodeCount = 0;
+    private final Map<String, Integer> globalIndexes = new HashMap<>();
+
+    int nextNodeId() {
+        return nodeCount++;
+    }
+
+    int nodeCount() {
+        return nodeCount;
+    }
+
+    // Handed out as the program runs, on whichever threads are running it.
+    synchronized int globalIndex(String name) {
+        return globalIndexes.computeIfAbsent(name, key -> globalIndexes.size());
+    }
+
+    synchronized int globalCount() {
+        return globalIndexes.size();
+    }
+}
@@ -1,18 +1,55 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    // Each name is interned as a symbol holding the chain of its bindings in the open scopes,
+    // innermost first, so resolving a variable doesn't have to search every scope.
+    private static class Symbol {
+        Binding innermost;
+    }
+
+    private static class Binding {
+        final Symbol symbol;
+        final int scope;
+        final Binding shadowed;
+        boolean isDefined;
+
+        Binding(Symbol symbol, int scope, Binding shadowed) {
+            this.symbol = symbol;
+            this.scope = scope;
+            this.shadowed = shadowed;
+        }
+    }
+
+    // A function being resolved, and the names it uses from outside itself.
+    private static class FunctionScope {
+        final int scope;
+        final Map<String, Token> captures = new LinkedHashMap<>();
+
+        FunctionScope(int scope) {
+            this.scope = scope;
+        }
+    }
+
+    private final ErrorReporter errors;
+    // Numbers the nodes as they are resolved.
+    private final Program program;
+    private final Map<String, Symbol> symbols = new HashMap<>();
+    // The bindings declared in each open scope, outermost scope first.
+    private final List<List<Binding>> scopes = new ArrayList<>();
+    // The open functions, outermost first.
+    private final List<FunctionScope> functions = new ArrayList<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private LoopType currentLoop = LoopType.NONE;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver(ErrorReporter errors, Program program) {
+        this.errors = errors;
+        this.program = program;
     }
 
     private enum FunctionType {
@@ -42,6 +79,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
     }
 
+    private void resolve(Stmt[] statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
         beginScope();
@@ -53,7 +96,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitBreakStmt(Stmt.Break stmt) {
         if (currentLoop == LoopType.NONE) {
-            Lox.error(stmt.keyword, "Break statement outside loop.");
+            errors.error(stmt.keyword, "Break statement outside loop.");
         }
         return null;
     }
@@ -67,34 +110,34 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         define(stmt.name);
         if (stmt.superclass != null) {
             if (stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-                Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+                errors.error(stmt.superclass.name, "A class can't inherit from itself.");
             }
             currentClass = ClassType.SUBCLASS;
             resolve(stmt.superclass);
 
             beginScope();
-            scopes.peek().put("super", true);
+            define("super");
         }
 
         beginScope();
-        scopes.peek().put("this", true);
+        define("this");
 
         for (Stmt.Function method : stmt.instanceMethods) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.name.lexeme.equals("init")) {
                 declaration = FunctionType.INITIALIZER;
             }
-            resolveFunction(method, declaration);
+            resolveMethod(method, declaration);
         }
         for (Stmt.Function method : stmt.classMethods) {
             if (method.name.lexeme.equals("init")) {
-                Lox.error(method.name, "Initializer method cannot be 'class'.");
+                errors.error(method.name, "Initializer method cannot be 'class'.");
             }
-            resolveFunction(method, FunctionType.METHOD);
+            resolveMethod(method, FunctionType.METHOD);
         }
         for (Stmt.Function method : stmt.getters) {
             if (method.name.lexeme.equals("init")) {
-                Lox.error(method.name, "Initializer method cannot be getter.");
+                errors.error(method.name, "Initializer method cannot be getter.");
             }
             resolveGetterMethod(method);
         }
@@ -113,7 +156,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitContinueStmt(Stmt.Continue stmt) {
         if (currentLoop == LoopType.NONE) {
-            Lox.error(stmt.keyword, "Continue statement outside loop.");
+            errors.error(stmt.keyword, "Continue statement outside loop.");
         }
         return null;
     }
@@ -160,15 +203,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            errors.error(stmt.keyword, "Can't return from top-level code.");
         }
 
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+                errors.error(stmt.keyword, "Can't return a value from an initializer.");
             }
             if (currentFunction == FunctionType.SETTER) {
-                Lox.error(stmt.keyword, "Can't return a value from a setter method.");
+                errors.error(stmt.keyword, "Can't return a value from a setter method.");
             }
 
             resolve(stmt.value);
@@ -211,6 +254,13 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
         resolveLocal(expr, expr.name);
+        capture(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitAwaitExpr(Expr.Await expr) {
+        resolve(expr.value);
         return null;
     }
 
@@ -242,7 +292,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionExpr(Expr.Function expr) {
-        resolveFunction(new Stmt.Function(null, expr.params, expr.body), FunctionType.FUNCTION);
+        Stmt.Function function = new Stmt.Function(null, expr.params, expr.body, expr.isAsync);
+        resolveFunction(function, FunctionType.FUNCTION);
+        expr.captures = function.captures;
         return null;
     }
 
@@ -280,9 +332,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'super' outside a class.");
+            errors.error(expr.keyword, "Can't use 'super' outside a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+            errors.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
         }
 
         resolveLocal(expr, expr.keyword);
@@ -292,7 +344,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'this' outside a class.");
+            errors.error(expr.keyword, "Can't use 'this' outside a class.");
             return null;
         }
 
@@ -308,70 +360,118 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Can't read local variable in its own initializer.");
+        if (!scopes.isEmpty()) {
+            Binding binding = symbol(expr.name.lexeme).innermost;
+            if (binding != null && binding.scope == scopes.size() - 1 && !binding.isDefined) {
+                errors.error(expr.name, "Can't read local variable in its own initializer.");
+            }
         }
 
         resolveLocal(expr, expr.name);
+        capture(expr.name);
         return null;
     }
 
-    private void resolve(Stmt stmt) {
+    void resolve(Stmt stmt) {
+        stmt.id = program.nextNodeId();
         stmt.accept(this);
     }
 
     private void resolve(Expr expr) {
+        expr.id = program.nextNodeId();
         expr.accept(this);
     }
 
+    // Methods aren't resolved as statements, so they are numbered here.
+    private void resolveMethod(Stmt.Function method, FunctionType type) {
+        method.id = program.nextNodeId();
+        resolveFunction(method, type);
+    }
+
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
         beginScope();
+        FunctionScope scope = new FunctionScope(scopes.size() - 1);
+        functions.add(scope);
         for (Token param : function.params) {
             declare(param);
             define(param);
         }
         resolve(function.body);
+        functions.remove(functions.size() - 1);
         endScope();
+        function.captures = scope.captures.values().toArray(new Token[0]);
         currentFunction = enclosingFunction;
     }
 
     private void resolveGetterMethod(Stmt.Function function) {
-        resolveFunction(function, FunctionType.METHOD);
+        resolveMethod(function, FunctionType.METHOD);
     }
 
     private void resolveSetterMethod(Stmt.Function function) {
-        resolveFunction(function, FunctionType.SETTER);
+        resolveMethod(function, FunctionType.SETTER);
     }
 
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.add(new ArrayList<>());
     }
 
     private void endScope() {
-        scopes.pop();
+        List<Binding> scope = scopes.remove(scopes.size() - 1);
+        for (int i = scope.size() - 1; i >= 0; i--) {
+            Binding binding = scope.get(i);
+            binding.symbol.innermost = binding.shadowed;
+        }
+    }
+
+    private Symbol symbol(String name) {
+        return symbols.computeIfAbsent(name, key -> new Symbol());
+    }
+
+    // Returns the binding for the name in the innermost scope, creating it if needed.
+    private Binding bind(String name) {
+        Symbol symbol = symbol(name);
+        int scope = scopes.size() - 1;
+        if (symbol.innermost != null && symbol.innermost.scope == scope) {
+            return symbol.innermost;
+        }
+
+        Binding binding = new Binding(symbol, scope, symbol.innermost);
+        symbol.innermost = binding;
+        scopes.get(scope).add(binding);
+        return binding;
     }
 
     private void declare(Token name) {
         if (scopes.isEmpty()) return;
-
-        Map<String, Boolean> scope = scopes.peek();
-        scope.put(name.lexeme, false);
+        bind(name.lexeme).isDefined = false;
     }
 
     private void define(Token name) {
+        define(name.lexeme);
+    }
+
+    private void define(String name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        bind(name).isDefined = true;
     }
 
     private void resolveLocal(Expr expr, Token name) {
-        for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
-            }
+        Symbol symbol = symbols.get(name.lexeme);
+        if (symbol != null && symbol.innermost != null) {
+            expr.depth = scopes.size() - 1 - symbol.innermost.scope;
+        }
+    }
+
+    // Records a variable as captured by each open function it is declared outside of.
+    // Globals count too, so a function's captures are every outer name it reads or assigns.
+    private void capture(Token name) {
+        Binding binding = symbol(name.lexeme).innermost;
+        int scope = binding == null ? -1 : binding.scope;
+        for (int i = functions.size() - 1; i >= 0 && functions.get(i).scope > scope; i--) {
+            functions.get(i).captures.putIfAbsent(name.lexeme, name);
         }
     }
 }
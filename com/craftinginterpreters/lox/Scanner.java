@@ -13,6 +13,8 @@ public class Scanner {
     static {
         keywords = new HashMap<>();
         keywords.put("and", AND);
+        keywords.put("async", ASYNC);
+        keywords.put("await", AWAIT);
         keywords.put("break", BREAK);
         keywords.put("class", CLASS);
         keywords.put("continue", CONTINUE);
@@ -35,13 +37,25 @@ public class Scanner {
     }
 
     private final String source;
+    private final ErrorReporter errors;
+    private final int end;
     private final List<Token> tokens = new ArrayList<>();
-    private int start = 0;
-    private int current = 0;
-    private int line = 1;
+    private int start;
+    private int current;
+    private int line;
 
-    Scanner(String source) {
+    Scanner(String source, ErrorReporter errors) {
+        this(source, 0, source.length(), 1, errors);
+    }
+
+    // Scans only source[start, end), which begins on the given line.
+    Scanner(String source, int start, int end, int line, ErrorReporter errors) {
         this.source = source;
+        this.errors = errors;
+        this.end = end;
+        this.start = start;
+        this.current = start;
+        this.line = line;
     }
 
     List<Token> scanTokens() {
@@ -149,7 +163,7 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    errors.error(line, "Unexpected character.");
                 }
                 break;
         }
@@ -185,7 +199,7 @@ public class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            errors.error(line, "Unterminated string.");
             return;
         }
 
@@ -210,7 +224,7 @@ public class Scanner {
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
+        if (current + 1 >= end) return '\0';
         return source.charAt(current + 1);
     }
 
@@ -229,7 +243,7 @@ public class Scanner {
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
     }
 
     private char advance() {
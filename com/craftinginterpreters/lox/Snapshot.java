@@ -0,0 +1,370 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Saves the globals a prelude script defined, so later runs can restore them instead of
+// running the prelude again. Functions keep their resolved bodies, and everything reachable
+// from the globals is saved with it: closures, classes, instances, lists and maps. Natives
+// are saved by name. Files, tasks and other handles on the outside world can't be saved.
+//
+// An image is a stream of records. Each object is created by one record, which only refers
+// to objects created before it, and filled in by a later one, which may refer to any object.
+// That keeps cycles, such as a function stored in its own closure, simple to read back.
+class Snapshot {
+    // Bump this whenever the format below changes. Images also record AstCache.VERSION.
+    private static final int VERSION = 1;
+
+    // Tags for values.
+    private static final byte NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3, STRING = 4,
+            NATIVE = 5, OBJECT = 6;
+    // Tags for records.
+    private static final byte END = 0, ENVIRONMENT = 1, FUNCTION = 2, ANON_FUNCTION = 3,
+            CLASS = 4, INSTANCE = 5, LIST = 6, MAP = 7, FILL = 8;
+    // The globals are always object 0.
+    private static final int GLOBALS = 0;
+
+    private static class Writer {
+        private final AstCache.Writer ast;
+        private final Map<Object, Integer> ids = new IdentityHashMap<>();
+        private final Map<LoxCallable, String> natives = new IdentityHashMap<>();
+        // Objects created but not yet filled in.
+        private final Deque<Object> unfilled = new ArrayDeque<>();
+
+        Writer(DataOutputStream out, Environment globals) {
+            this.ast = new AstCache.Writer(out);
+            ids.put(globals, GLOBALS);
+            for (Map.Entry<String, LoxCallable> native_ : Natives.all.entrySet()) {
+                natives.put(native_.getValue(), native_.getKey());
+            }
+        }
+
+        // Writes the globals that differ from a new interpreter's: what the prelude added,
+        // and any natives it redefined.
+        void writeGlobals(Environment globals) {
+            Map<String, Environment.Cell> changed = new HashMap<>();
+            for (Map.Entry<String, Environment.Cell> global : globals.cells().entrySet()) {
+                Environment.Cell cell = global.getValue();
+                if (cell.isMutable || cell.value != Natives.all.get(global.getKey())) {
+                    changed.put(global.getKey(), cell);
+                }
+            }
+            writeFill(GLOBALS, changed);
+            fillAll();
+            ast.writeByte(END);
+        }
+
+        private void fillAll() {
+            while (!unfilled.isEmpty()) {
+                Object object = unfilled.pop();
+                int id = ids.get(object);
+                if (object instanceof Environment) {
+                    writeFill(id, ((Environment) object).cells());
+                } else if (object instanceof LoxList) {
+                    LoxList list = (LoxList) object;
+                    List<Object> values = new ArrayList<>();
+                    for (int i = 0; i < list.size(); i++) values.add(list.get(i));
+                    writeFill(id, values, list.isFrozen());
+                } else if (object instanceof LoxMap) {
+                    LoxMap map = (LoxMap) object;
+                    List<Object> entries = new ArrayList<>();
+                    LoxList keys = map.keys();
+                    for (int i = 0; i < keys.size(); i++) {
+                        entries.add(keys.get(i));
+                        entries.add(map.get(keys.get(i)));
+                    }
+                    writeFill(id, entries, map.isFrozen());
+                } else if (object instanceof LoxInstance) {
+                    writeFill(id, (LoxInstance) object);
+                }
+            }
+        }
+
+        private void writeFill(int id, Map<String, Environment.Cell> cells) {
+            for (Environment.Cell cell : cells.values()) reference(cell.value);
+            ast.writeByte(FILL);
+            ast.writeInt(id);
+            ast.writeInt(cells.size());
+            for (Map.Entry<String, Environment.Cell> cell : cells.entrySet()) {
+                ast.writeString(cell.getKey());
+                ast.writeByte(cell.getValue().isMutable ? 1 : 0);
+                writeValue(cell.getValue().value);
+            }
+        }
+
+        private void writeFill(int id, List<Object> values, boolean isFrozen) {
+            for (Object value : values) reference(value);
+            ast.writeByte(FILL);
+            ast.writeInt(id);
+            ast.writeInt(values.size());
+            for (Object value : values) writeValue(value);
+            ast.writeByte(isFrozen ? 1 : 0);
+        }
+
+        // A class is an instance too: its fields are the class fields, and its methods are
+        // filled in along with them.
+        private void writeFill(int id, LoxInstance instance) {
+            Map<String, Object> fields = instance.fields();
+            Map<String, LoxFunction> methods =
+                    instance instanceof LoxClass ? ((LoxClass) instance).methods() : Map.of();
+            for (Object value : fields.values()) reference(value);
+            for (LoxFunction method : methods.values()) reference(method);
+
+            ast.writeByte(FILL);
+            ast.writeInt(id);
+            ast.writeInt(fields.size());
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                ast.writeString(field.getKey());
+                writeValue(field.getValue());
+            }
+            ast.writeInt(methods.size());
+            for (Map.Entry<String, LoxFunction> method : methods.entrySet()) {
+                ast.writeString(method.getKey());
+                ast.writeInt(ids.get(method.getValue()));
+            }
+            ast.writeByte(instance.isFrozen() ? 1 : 0);
+            ast.writeByte(instance.isShared() ? 1 : 0);
+        }
+
+        // Makes sure the value, if it's an object, has been created.
+        private void reference(Object value) {
+            if (value == null || value instanceof Boolean || value instanceof Double
+                    || value instanceof String || natives.containsKey(value)) {
+                return;
+            }
+            create(value);
+        }
+
+        private int create(Object object) {
+            Integer known = ids.get(object);
+            if (known != null) return known;
+
+            if (object instanceof Environment) {
+                Environment environment = (Environment) object;
+                int enclosing = create(environment.enclosing);
+                ast.writeByte(ENVIRONMENT);
+                ast.writeInt(enclosing);
+            } else if (object instanceof LoxFunction) {
+                LoxFunction function = (LoxFunction) object;
+                int closure = create(function.closure());
+                ast.writeByte(FUNCTION);
+                ast.writeInt(closure);
+                ast.writeByte(function.isInitializer() ? 1 : 0);
+                ast.writeByte(function.methodType().ordinal());
+                ast.writeStmt(function.declaration());
+            } else if (object instanceof LoxAnonFunction) {
+                LoxAnonFunction function = (LoxAnonFunction) object;
+                int closure = create(function.closure());
+                ast.writeByte(ANON_FUNCTION);
+                ast.writeInt(closure);
+                ast.writeExpr(function.definition());
+            } else if (object instanceof LoxClass) {
+                LoxClass class_ = (LoxClass) object;
+                int superclass = class_.superclass == null ? -1 : create(class_.superclass);
+                int metaclass = class_.getKlass() == null ? -1 : create(class_.getKlass());
+                ast.writeByte(CLASS);
+                ast.writeByte(class_.name == null ? 0 : 1);
+                if (class_.name != null) ast.writeString(class_.name);
+                ast.writeInt(superclass + 1);
+                ast.writeInt(metaclass + 1);
+            } else if (object instanceof LoxInstance) {
+                int klass = create(((LoxInstance) object).getKlass());
+                ast.writeByte(INSTANCE);
+                ast.writeInt(klass);
+            } else if (object instanceof LoxList) {
+                ast.writeByte(LIST);
+            } else if (object instanceof LoxMap) {
+                ast.writeByte(MAP);
+            } else {
+                throw new IllegalArgumentException("Can't save " + object + " in a snapshot.");
+            }
+
+            int id = ids.size();
+            ids.put(object, id);
+            if (!(object instanceof LoxFunction || object instanceof LoxAnonFunction)) {
+                unfilled.push(object);
+            }
+            return id;
+        }
+
+        private void writeValue(Object value) {
+            if (value == null) {
+                ast.writeByte(NIL);
+            } else if (value instanceof Boolean) {
+                ast.writeByte((boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                ast.writeByte(NUMBER);
+                ast.writeDouble((double) value);
+            } else if (value instanceof String) {
+                ast.writeByte(STRING);
+                ast.writeString((String) value);
+            } else if (natives.containsKey(value)) {
+                ast.writeByte(NATIVE);
+                ast.writeString(natives.get(value));
+            } else {
+                ast.writeByte(OBJECT);
+                ast.writeInt(ids.get(value));
+            }
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final AstCache.Reader ast;
+        private final List<Object> objects = new ArrayList<>();
+
+        Reader(DataInputStream in, Environment globals, Program program) {
+            this.in = in;
+            this.ast = new AstCache.Reader(in, program);
+            objects.add(globals);
+        }
+
+        void readRecords() throws IOException {
+            while (true) {
+                byte tag = in.readByte();
+                switch (tag) {
+                    case END: return;
+                    case ENVIRONMENT:
+                        objects.add(new Environment(environment(ast.readInt())));
+                        break;
+                    case FUNCTION: {
+                        Environment closure = environment(ast.readInt());
+                        boolean isInitializer = in.readBoolean();
+                        LoxFunction.MethodType methodType =
+                                LoxFunction.MethodType.values()[in.readByte()];
+                        Stmt.Function declaration = (Stmt.Function) ast.readStmt();
+                        objects.add(new LoxFunction(declaration, closure, isInitializer, methodType));
+                        break;
+                    }
+                    case ANON_FUNCTION: {
+                        Environment closure = environment(ast.readInt());
+                        objects.add(new LoxAnonFunction((Expr.Function) ast.readExpr(), closure));
+                        break;
+                    }
+                    case CLASS: {
+                        String name = in.readBoolean() ? ast.readString() : null;
+                        LoxClass superclass = (LoxClass) optional(ast.readInt());
+                        LoxClass metaclass = (LoxClass) optional(ast.readInt());
+                        objects.add(new LoxClass(name, superclass, new HashMap<>(), metaclass));
+                        break;
+                    }
+                    case INSTANCE:
+                        objects.add(new LoxInstance((LoxClass) objects.get(ast.readInt())));
+                        break;
+                    case LIST:
+                        objects.add(new LoxList());
+                        break;
+                    case MAP:
+                        objects.add(new LoxMap());
+                        break;
+                    case FILL:
+                        fill(objects.get(ast.readInt()));
+                        break;
+                    default:
+                        throw new IOException("Unknown snapshot record " + tag + ".");
+                }
+            }
+        }
+
+        private void fill(Object object) throws IOException {
+            if (object instanceof Environment) {
+                Environment environment = (Environment) object;
+                int count = ast.readInt();
+                for (int i = 0; i < count; i++) {
+                    String name = ast.readString();
+                    boolean isMutable = in.readBoolean();
+                    environment.define(name, readValue(), isMutable);
+                }
+            } else if (object instanceof LoxList) {
+                LoxList list = (LoxList) object;
+                int count = ast.readInt();
+                for (int i = 0; i < count; i++) list.push(readValue());
+                if (in.readBoolean()) list.freeze();
+            } else if (object instanceof LoxMap) {
+                LoxMap map = (LoxMap) object;
+                int count = ast.readInt() / 2;
+                for (int i = 0; i < count; i++) map.put(readValue(), readValue());
+                if (in.readBoolean()) map.freeze();
+            } else {
+                LoxInstance instance = (LoxInstance) object;
+                int fields = ast.readInt();
+                for (int i = 0; i < fields; i++) {
+                    Token name = new Token(TokenType.IDENTIFIER, ast.readString(), null, 0);
+                    instance.set(name, readValue());
+                }
+                int methods = ast.readInt();
+                for (int i = 0; i < methods; i++) {
+                    String name = ast.readString();
+                    ((LoxClass) instance).methods().put(name, (LoxFunction) objects.get(ast.readInt()));
+                }
+                if (in.readBoolean()) instance.freeze();
+                if (in.readBoolean()) instance.share();
+            }
+        }
+
+        private Environment environment(int id) {
+            return (Environment) objects.get(id);
+        }
+
+        // Class references are stored off by one so that 0 means none.
+        private Object optional(int id) {
+            return id == 0 ? null : objects.get(id - 1);
+        }
+
+        private Object readValue() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case NUMBER: return in.readDouble();
+                case STRING: return ast.readString();
+                case NATIVE: {
+                    String name = ast.readString();
+                    LoxCallable native_ = Natives.all.get(name);
+                    if (native_ == null) throw new IOException("Unknown native '" + name + "'.");
+                    return native_;
+                }
+                case OBJECT: return objects.get(ast.readInt());
+            }
+
+            throw new IOException("Unknown snapshot value " + tag + ".");
+        }
+    }
+
+    // Throws IllegalArgumentException if the globals hold something that can't be saved.
+    static void write(OutputStream stream, Environment globals) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(AstCache.VERSION);
+            new Writer(out, globals).writeGlobals(globals);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+    }
+
+    // Defines the saved globals in globals, which should be a new interpreter's, numbering
+    // the functions' nodes in program. Returns false if the image was written by a different
+    // version.
+    static boolean read(InputStream stream, Environment globals, Program program) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != VERSION || in.readInt() != AstCache.VERSION) return false;
+        new Reader(in, globals, program).readRecords();
+        return true;
+    }
+}
@@ -1,7 +1,5 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
-
 abstract class Stmt {
     interface Visitor<R> {
         R visitBlockStmt(Block stmt);
@@ -19,8 +17,10 @@ abstract class Stmt {
         R visitVarStmt(Var stmt);
         R visitWhileStmt(While stmt);
     }
+
+    int id = -1;
     static class Block extends Stmt {
-        Block(List<Stmt> statements) {
+        Block(Stmt[] statements) {
             this.statements = statements;
         }
 
@@ -29,7 +29,7 @@ abstract class Stmt {
             return visitor.visitBlockStmt(this);
         }
 
-        final List<Stmt> statements;
+        final Stmt[] statements;
     }
     static class Break extends Stmt {
         Break(Token keyword) {
@@ -44,7 +44,7 @@ abstract class Stmt {
         final Token keyword;
     }
     static class Class extends Stmt {
-        Class(Token name, Expr.Variable superclass, List<Stmt.Function> instanceMethods, List<Stmt.Function> classMethods, List<Stmt.Function> getters, List<Stmt.Function> setters) {
+        Class(Token name, Expr.Variable superclass, Stmt.Function[] instanceMethods, Stmt.Function[] classMethods, Stmt.Function[] getters, Stmt.Function[] setters) {
             this.name = name;
             this.superclass = superclass;
             this.instanceMethods = instanceMethods;
@@ -60,10 +60,10 @@ abstract class Stmt {
 
         final Token name;
         final Expr.Variable superclass;
-        final List<Stmt.Function> instanceMethods;
-        final List<Stmt.Function> classMethods;
-        final List<Stmt.Function> getters;
-        final List<Stmt.Function> setters;
+        final Stmt.Function[] instanceMethods;
+        final Stmt.Function[] classMethods;
+        final Stmt.Function[] getters;
+        final Stmt.Function[] setters;
     }
     static class Continue extends Stmt {
         Continue(Token keyword) {
@@ -96,10 +96,11 @@ abstract class Stmt {
         final Expr expression;
     }
     static class Function extends Stmt {
-        Function(Token name, List<Token> params, List<Stmt> body) {
+        Function(Token name, Token[] params, Stmt[] body, boolean isAsync) {
             this.name = name;
             this.params = params;
             this.body = body;
+            this.isAsync = isAsync;
         }
 
         @Override
@@ -108,8 +109,11 @@ abstract class Stmt {
         }
 
         final Token name;
-        final List<Token> params;
-        final List<Stmt> body;
+        final Token[] params;
+        final Stmt[] body;
+        final boolean isAsync;
+
+        Token[] captures = null;
     }
     static class If extends Stmt {
         If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -196,7 +200,8 @@ abstract class Stmt {
         final Expr initializer;
     }
     static class While extends Stmt {
-        While(Expr condition, Stmt body) {
+        While(Token keyword, Expr condition, Stmt body) {
+            this.keyword = keyword;
             this.condition = condition;
             this.body = body;
         }
@@ -206,6 +211,7 @@ abstract class Stmt {
             return visitor.visitWhileStmt(this);
         }
 
+        final Token keyword;
         final Expr condition;
         final Stmt body;
     }
@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+
+// Text a script can read: stdin or a file opened to read. Both return null at the end.
+interface TextSource {
+    String readLine() throws IOException;
+    // Up to count bytes, without splitting a character.
+    String read(int count) throws IOException;
+}
@@ -14,7 +14,7 @@ enum TokenType {
     IDENTIFIER, STRING, NUMBER,
 
     // Keywords.
-    AND, BREAK, CLASS, CONTINUE, ELSE, FALSE, FUN, FOR, IF, INPUT,
+    AND, ASYNC, AWAIT, BREAK, CLASS, CONTINUE, ELSE, FALSE, FUN, FOR, IF, INPUT,
     NIL, OR, PRINT, RETURN, SUPER, THIS, TRUE, VAL, VAR, WHILE,
 
     EOF
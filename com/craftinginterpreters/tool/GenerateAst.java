@@ -14,12 +14,15 @@ public class GenerateAst {
             System.exit(64);
         }
         String outputDir = args[0];
-        defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign : Token name, Expr value",
+        // Slots on the base class are shared by every node type. The id numbers a node densely
+        // within its Program, so passes can keep per-node data in arrays.
+        defineAst(outputDir, "Expr", "int id = -1, int depth = -1", Arrays.asList(
+                "Assign : Token name, Expr value | int global = -1",
+                "Await : Token keyword, Expr value",
                 "Binary : Expr left, Token operator, Expr right",
-                "Call : Expr callee, Token paren, List<Expr> arguments",
+                "Call : Expr callee, Token paren, Expr[] arguments",
                 "Conditional : Expr condition, Expr left, Expr right",
-                "Function : Token keyword, List<Token> params, List<Stmt> body",
+                "Function : Token keyword, Token[] params, Stmt[] body, boolean isAsync | Token[] captures = null",
                 "Get : Expr object, Token name",
                 "Grouping : Expr expression",
                 "Literal : Object value",
@@ -28,49 +31,56 @@ public class GenerateAst {
                 "Super : Token keyword, Token method",
                 "This : Token keyword",
                 "Unary : Token operator, Expr right",
-                "Variable : Token name"
+                "Variable : Token name | int global = -1"
         ));
 
-        defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block : List<Stmt> statements",
+        defineAst(outputDir, "Stmt", "int id = -1", Arrays.asList(
+                "Block : Stmt[] statements",
                 "Break : Token keyword",
                 "Class : Token name, Expr.Variable superclass, " +
-                        "List<Stmt.Function> instanceMethods, List<Stmt.Function> classMethods, " +
-                        "List<Stmt.Function> getters, List<Stmt.Function> setters",
+                        "Stmt.Function[] instanceMethods, Stmt.Function[] classMethods, " +
+                        "Stmt.Function[] getters, Stmt.Function[] setters",
                 "Continue : Token keyword",
                 "Empty",
                 "Expression : Expr expression",
-                "Function : Token name, List<Token> params, List<Stmt> body",
+                "Function : Token name, Token[] params, Stmt[] body, boolean isAsync | Token[] captures = null",
                 "If : Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Input : Token keyword, Expr.Variable variable",
                 "Print : Expr expression",
                 "Return : Token keyword, Expr value",
                 "Val : Token name, Expr initializer",
                 "Var : Token name, Expr initializer",
-                "While : Expr condition, Stmt body"
+                "While : Token keyword, Expr condition, Stmt body"
         ));
     }
 
-    private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
+    private static void defineAst(String outputDir, String baseName, String baseSlots, List<String> types)
+            throws IOException {
         String path = outputDir + "/" + baseName + ".java";
         try (PrintWriter writer = new PrintWriter(path, StandardCharsets.UTF_8)) {
             writer.println("package com.craftinginterpreters.lox;");
             writer.println();
-            writer.println("import java.util.List;");
-            writer.println();
             writer.println("abstract class " + baseName + " {");
 
             defineVisitor(writer, baseName, types);
 
+            if (!baseSlots.isEmpty()) {
+                writer.println();
+                printSlots(writer, "    ", baseSlots);
+            }
+
             // The AST classes.
             for (String type : types) {
                 List<String> splitResult = new ArrayList<>(Arrays.asList(type.split(":")));
                 splitResult.add("");  // Ensure the length of the list is at least 2.
 
                 String className = splitResult.get(0).trim();
-                String fields = splitResult.get(1).trim();
+                // Fields after a '|' are mutable slots for the interpreter, not set by the constructor.
+                String[] fieldsAndSlots = splitResult.get(1).split("\\|");
+                String fields = fieldsAndSlots[0].trim();
+                String slots = fieldsAndSlots.length > 1 ? fieldsAndSlots[1].trim() : "";
 
-                defineType(writer, baseName, className, fields);
+                defineType(writer, baseName, className, fields, slots);
             }
 
             // The base accept() method.
@@ -93,7 +103,8 @@ public class GenerateAst {
         writer.println("    }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className,
+                                   String fieldList, String slotList) {
         writer.println("    static class " + className + " extends " + baseName + " {");
 
         if (!fieldList.isEmpty()) {
@@ -108,6 +119,11 @@ public class GenerateAst {
             printFields(writer, fieldList);
         }
 
+        if (!slotList.isEmpty()) {
+            writer.println();
+            printSlots(writer, "        ", slotList);
+        }
+
         writer.println("    }");
     }
 
@@ -138,4 +154,12 @@ public class GenerateAst {
             writer.println("        final " + field + ";");
         }
     }
+
+    private static void printSlots(PrintWriter writer, String indent, String slotList) {
+        // Mutable slots.
+        String[] slots = slotList.split(", ");
+        for (String slot : slots) {
+            writer.println(indent + slot + ";");
+        }
+    }
 }